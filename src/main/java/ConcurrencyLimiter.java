@@ -0,0 +1,170 @@
+/**
+ * Limits how many api requests are in flight at once, and finds the highest limit the API tolerates.
+ *
+ * Problem:
+ *     Any fixed number of parallel requests is either too timid or sooner or later trips Github's secondary
+ * (abuse) rate limit, which answers 403 with a Retry-After header and stops the crawl for a minute or more.
+ *
+ * Solution:
+ *     Additive increase, multiplicative decrease (AIMD), as in TCP congestion control. While responses come
+ * back healthy and the limit is actually being used, the limit grows by about one request per limit's worth
+ * of responses. A secondary rate limit (see ObservedHttpURLConnection.isSecondaryRateLimit()), latencies that
+ * climb well above what is typical for their endpoints, or a run of failed requests (5xx responses, timeouts,
+ * refused connections) halves it. Only requests sent after the last cut can cut it again, so one burst of
+ * overload costs one halving. A Retry-After, or a primary rate limit about to run out, also holds back every
+ * new request until it has passed.
+ * Reference: Jacobson, "Congestion Avoidance and Control", SIGCOMM 1988
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF = 0.5;              // limit multiplier on overload
+    private static final double LATENCY_TOLERANCE = 2.0;    // smoothed (latency / typical latency) that counts as overload
+    private static final double ERROR_TOLERANCE = 0.2;      // smoothed share of failed requests that counts as overload
+    private static final double SMOOTHING = 0.1;            // weight of the newest latency ratio and outcome
+
+    public static final long NO_SLOT = Long.MIN_VALUE;      // returned by tryAcquire() when the limit is reached
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    // Guarded by 'this'.
+    private double limit;
+    private int inFlight = 0;
+    private double latencyRatio = 1.0;
+    private double errorRate = 0.0;
+    private long lastCut = System.nanoTime();
+    private long pausedUntil = 0;   // epoch milliseconds
+
+    /**
+     * @param initialLimit  Requests allowed in flight at the start
+     * @param maxLimit      The limit never grows past this (ie. the number of threads that can make requests)
+     */
+    public ConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * Waits until a request may be sent. Every acquire() must be followed by a release().
+     *
+     * @return                      Ticket to hand to release()
+     * @throws InterruptedException Current thread is interrupted
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (true) {
+            long pause = pausedUntil - System.currentTimeMillis();
+            if (pause > 0)
+                wait(pause);
+            else if (inFlight >= (int) limit)
+                wait();
+            else
+                break;
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Takes a slot if one is free right now, without waiting. Every ticket taken must be given back with release().
+     *
+     * @return  Ticket to hand to release(), or NO_SLOT if the limit is reached or requests are paused
+     */
+    public synchronized long tryAcquire() {
+        if (pausedUntil > System.currentTimeMillis() || inFlight >= (int) limit)
+            return NO_SLOT;
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Reports the outcome of a request and frees its slot.
+     *
+     * @param ticket        Returned by acquire()
+     * @param overloaded    True, if the API asked us to back off (ie. a secondary rate limit)
+     * @param failed        True, if the request failed (ie. a 5xx response or a timeout)
+     * @param latencyRatio  Latency of the request over the typical latency of its endpoint, or -1 if not known yet
+     */
+    public synchronized void release(long ticket, boolean overloaded, boolean failed, double latencyRatio) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+
+        if (latencyRatio > 0)
+            this.latencyRatio = this.latencyRatio * (1 - SMOOTHING) + latencyRatio * SMOOTHING;
+        errorRate = errorRate * (1 - SMOOTHING) + (failed ? SMOOTHING : 0);
+
+        if (overloaded || this.latencyRatio > LATENCY_TOLERANCE || errorRate > ERROR_TOLERANCE) {
+            cut(ticket);
+        } else if (saturated && !failed) {
+            // Only grow a limit that is being used; an idle limit says nothing about what the API tolerates.
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reports a secondary rate limit that was only recognized after the request's slot was released
+     * (ie. from the error body). Cuts the limit like release() would have.
+     *
+     * @param ticket    Returned by acquire() for the request
+     */
+    public synchronized void overloaded(long ticket) {
+        if (ticket != NO_SLOT)
+            cut(ticket);
+    }
+
+    private void cut(long ticket) {
+        if (ticket - lastCut > 0) {     // sent after the last cut, so it's news
+            limit = Math.max(minLimit, limit * BACKOFF);
+            lastCut = System.nanoTime();
+            latencyRatio = 1.0;
+            errorRate = 0.0;
+        }
+    }
+
+    /**
+     * Frees a slot without reporting an outcome, for a request whose outcome is reported by another one
+     * (ie. a hedged duplicate).
+     *
+     * @param ticket    Returned by acquire() or tryAcquire()
+     */
+    public synchronized void release(long ticket) {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Holds back every new request for the given time, ie. the Retry-After of a secondary rate limit.
+     *
+     * @param millis    Pause time in milliseconds
+     * @return          True, if this moved the end of the pause; false if requests were already held back as long
+     */
+    public synchronized boolean pause(long millis) {
+        long until = System.currentTimeMillis() + millis;
+        if (until <= pausedUntil)
+            return false;
+
+        pausedUntil = until;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return  Requests currently allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return  Requests currently in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Concurrency{limit=" + (int) limit + ", inFlight=" + inFlight + ", max=" + maxLimit + "}";
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Links a user to a repository they contributed to; one id of a Dataset1 entry.
+ * The position keeps the order of the contributor list (the owner is always position 0).
+ */
+public final class ContributorEdge {
+
+    public final int repoId;
+    public final int userId;
+    public final int position;
+
+    public ContributorEdge(int repoId, int userId, int position) {
+        this.repoId = repoId;
+        this.userId = userId;
+        this.position = position;
+    }
+}
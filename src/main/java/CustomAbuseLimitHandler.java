@@ -0,0 +1,48 @@
+import org.kohsuke.github.AbuseLimitHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Date;
+
+/**
+ * Waits out Github's secondary (abuse) rate limit like AbuseLimitHandler.WAIT, but also holds back the
+ * requests of every other thread through the ConcurrencyLimiter, instead of letting them run into the
+ * same limit one after the other. A secondary rate limit that came with a Retry-After or a 429 has already
+ * cut the limiter when the response arrived; one that only says so in its body (a plain 403) is reported
+ * here. Either way the limiter cuts once per request.
+ */
+public class CustomAbuseLimitHandler extends AbuseLimitHandler {
+
+    private final ConcurrencyLimiter limiter;
+
+    public CustomAbuseLimitHandler(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void onError(IOException e, HttpURLConnection uc) throws IOException {
+        long waitTime = parseWaitTime(uc);
+        if (uc instanceof ObservedHttpURLConnection)
+            limiter.overloaded(((ObservedHttpURLConnection) uc).getTicket());
+        limiter.pause(waitTime);
+
+        System.out.println("\n[" + new Date() + "] Abuse limit hit, pausing for... " + waitTime / 1000
+                + " seconds. Concurrency limit is now " + limiter.getLimit() + ".\n");
+        try {
+            Thread.sleep(waitTime);
+        } catch (InterruptedException ie) {
+            throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    /**
+     * Source: https://github.com/kohsuke/github-api/blob/master/src/main/java/org/kohsuke/github/AbuseLimitHandler.java
+     */
+    private long parseWaitTime(HttpURLConnection uc) {
+        String v = uc.getHeaderField("Retry-After");
+        if (v==null)    return 60 * 1000;   // can't tell, return 1 min
+
+        return Math.max(1000, Long.parseLong(v)*1000);
+    }
+}
@@ -1,5 +1,4 @@
 import org.kohsuke.github.HttpConnector;
-import org.kohsuke.github.extras.ImpatientHttpConnector;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -8,28 +7,96 @@ import java.net.URL;
 /**
  * @author Kevin Ng
  *
- * An implementation of the interface org.kohsuke.github.HttpConnector
- * that allows us to supply a customized timeout values. We extend
- * ImpatientHttpConnector so as to not reinvent the wheel...
+ * An implementation of the interface org.kohsuke.github.HttpConnector that sets the connect
+ * and read timeouts of each request from the latencies recently seen on the same endpoint.
+ *
+ * Problem:
+ *     A single fixed timeout (90 seconds) has to be long enough for the slowest endpoint, so one
+ * stuck socket on a fast endpoint stalls the crawl for the full 90 seconds before the retry kicks in.
+ *
+ * Solution:
+ *     Every response's latency is recorded per endpoint (see LatencyTracker). Once an endpoint has enough
+ * samples, its timeout becomes TIMEOUT_MULTIPLIER times its p99 latency, but never below MIN_TIMEOUT or above
+ * the values passed to the constructor, which now act as ceilings. Optionally, a GET that is still waiting
+ * after the endpoint's p99 latency gets a duplicate ("hedged") request, and whichever answers first is used.
+ * Hedged requests count against the rate limit, so hedging is off unless asked for.
+ * Reference: Dean & Barroso, "The Tail at Scale", Communications of the ACM, 2013
+ *
+ * Every connection handed out is wrapped in an ObservedHttpURLConnection, which does the measuring and
+ * hedging, reports the headers of every response to the RateLimitTracker, and holds a ConcurrencyLimiter
+ * slot while the request is out.
  */
-public class CustomHttpConnector extends ImpatientHttpConnector {
+public class CustomHttpConnector implements HttpConnector {
+
+    private static final int MIN_TIMEOUT = 10000;       // milliseconds
+    private static final int TIMEOUT_MULTIPLIER = 4;
+    private static final double TAIL_PERCENTILE = 0.99;
+
+    private final int connectTimeout;   // ceilings, also used until an endpoint has enough samples
+    private final int readTimeout;
+    private final boolean hedging;
+
+    private final RateLimitTracker rateLimits;
+    private final ConcurrencyLimiter limiter;
+    private final LatencyTracker latencies = new LatencyTracker();
 
-    // Define a "base" HttpConnector
-    // Source: https://github.com/kohsuke/github-api/blob/master/src/main/java/org/kohsuke/github/HttpConnector.java
-    private static final HttpConnector base = new HttpConnector() {
-        @Override
-        public HttpURLConnection connect(URL url) throws IOException {
-            return (HttpURLConnection) url.openConnection();
-        }
-    };
+    // Constructor takes the maximum connect timeout and read timeout values.
+    public CustomHttpConnector(int connectTimeout, int readTimeout, RateLimitTracker rateLimits,
+                               ConcurrencyLimiter limiter, boolean hedging) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.rateLimits = rateLimits;
+        this.limiter = limiter;
+        this.hedging = hedging;
+    }
+
+    // Constructor takes a maximum timeout value that is the same for both connection and read timeouts.
+    public CustomHttpConnector(int timeout, RateLimitTracker rateLimits, ConcurrencyLimiter limiter, boolean hedging) {
+        this(timeout, timeout, rateLimits, limiter, hedging);
+    }
+
+    @Override
+    public HttpURLConnection connect(URL url) throws IOException {
+        return new ObservedHttpURLConnection(open(url), this);
+    }
+
+    /**
+     * Opens a plain connection with the endpoint's current timeouts. Also used for hedged requests.
+     */
+    HttpURLConnection open(URL url) throws IOException {
+        String endpoint = LatencyTracker.endpointOf(url);
+
+        HttpURLConnection uc = (HttpURLConnection) url.openConnection();
+        uc.setConnectTimeout(timeoutFor(endpoint, connectTimeout));
+        uc.setReadTimeout(timeoutFor(endpoint, readTimeout));
+        return uc;
+    }
+
+    private int timeoutFor(String endpoint, int ceiling) {
+        long tail = latencies.percentile(endpoint, TAIL_PERCENTILE);
+        if (tail < 0)
+            return ceiling;     // not enough samples yet
+
+        return (int) Math.min(ceiling, Math.max(MIN_TIMEOUT, tail * TIMEOUT_MULTIPLIER));
+    }
+
+    /**
+     * @param endpoint  Endpoint key, see LatencyTracker.endpointOf()
+     * @return          Milliseconds to wait before hedging a GET to the endpoint, or -1 to not hedge
+     */
+    long hedgeDelay(String endpoint) {
+        return hedging ? latencies.percentile(endpoint, TAIL_PERCENTILE) : -1;
+    }
+
+    LatencyTracker getLatencies() {
+        return latencies;
+    }
 
-    // Constructor takes a custom connect timeout and read timeout values.
-    public CustomHttpConnector(int connectTimeout, int readTimeout) {
-        super(base, connectTimeout, readTimeout);
+    RateLimitTracker getRateLimits() {
+        return rateLimits;
     }
 
-    // Constructor takes a custom timout value that is the same for both connection and read timouts.
-    public CustomHttpConnector(int timeout) {
-        super(base, timeout, timeout);
+    ConcurrencyLimiter getLimiter() {
+        return limiter;
     }
 }
@@ -8,6 +8,12 @@ import java.util.concurrent.TimeUnit;
 
 public class CustomRateLimitHandler extends RateLimitHandler {
 
+    private final RateLimitTracker tracker;
+
+    public CustomRateLimitHandler(RateLimitTracker tracker) {
+        this.tracker = tracker;
+    }
+
     /**
      * Implementation borrowed from Kohsuke's RateLimitHandler.WAIT. Modified to output information to System.out
      * Source: https://github.com/kohsuke/github-api/blob/master/src/main/java/org/kohsuke/github/RateLimitHandler.java
@@ -15,32 +21,51 @@ public class CustomRateLimitHandler extends RateLimitHandler {
     @Override
     public void onError(IOException e, HttpURLConnection uc) throws IOException {
         try {
-            Date now = new Date();
-            long waitTime = parseWaitTime(uc);
+            pause(parseWaitTime(uc));
+        } catch (InterruptedException _) {
+            throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+        }
+    }
 
-            long mins = TimeUnit.MILLISECONDS.toMinutes(waitTime);
-            if (mins >= 1)
-                // display pause time in minutes if more than 60sec left
-                System.out.println("\n[" + now.toString() + "] Rate Limit exceeded, pausing for... " + mins + " minutes.\n");
-            else {
-                // display pause time in seconds if it's less than 60sec left
-                long secs = TimeUnit.MILLISECONDS.toSeconds(waitTime);
-                System.out.println("\n[" + now.toString() + "] Rate Limit exceeded, pausing for... " + secs + " seconds.\n");
-            }
+    /**
+     * Sleeps for the given duration, printing how long the program is paused for.
+     * Also used by the Miner to wait out an exhausted rate limit before starting on a repository.
+     *
+     * @param waitTime                  Pause time in milliseconds
+     * @throws InterruptedException     Current thread is interrupted
+     */
+    public void pause(long waitTime) throws InterruptedException {
+        announce(waitTime);
+        Thread.sleep(waitTime);
+    }
 
-            Thread.sleep(waitTime);
+    /**
+     * Prints how long the program is paused for, without pausing.
+     * Used by the Miner when the pause is left to the ConcurrencyLimiter.
+     *
+     * @param waitTime  Pause time in milliseconds
+     */
+    public void announce(long waitTime) {
+        Date now = new Date();
 
-        } catch (InterruptedException _) {
-            throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+        long mins = TimeUnit.MILLISECONDS.toMinutes(waitTime);
+        if (mins >= 1)
+            // display pause time in minutes if more than 60sec left
+            System.out.println("\n[" + now.toString() + "] Rate Limit exceeded, pausing for... " + mins + " minutes.\n");
+        else {
+            // display pause time in seconds if it's less than 60sec left
+            long secs = TimeUnit.MILLISECONDS.toSeconds(waitTime);
+            System.out.println("\n[" + now.toString() + "] Rate Limit exceeded, pausing for... " + secs + " seconds.\n");
         }
     }
 
     /**
      * Source: https://github.com/kohsuke/github-api/blob/master/src/main/java/org/kohsuke/github/RateLimitHandler.java
+     * Modified to fall back on the last reset time seen by the RateLimitTracker when the header is missing.
      */
     private long parseWaitTime(HttpURLConnection uc) {
         String v = uc.getHeaderField("X-RateLimit-Reset");
-        if (v==null)    return 10000;   // can't tell
+        if (v==null)    return Math.max(10000, tracker.millisUntilReset());   // can't tell from this response
 
         return Math.max(10000, Long.parseLong(v)*1000 - System.currentTimeMillis());
     }
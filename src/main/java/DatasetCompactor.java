@@ -0,0 +1,369 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites Dataset3 sorted by user id with every user listed once, and rebuilds the DiscoveredUsersSet
+ * from it so both files list the same users in the same order.
+ *
+ * Problem:
+ *     Dataset3 and the DiscoveredUsersSet are only ever appended to, so over a long crawl they pick up
+ * duplicate users (restarts after a partial write, users fetched twice) that can't be removed without
+ * loading the whole file into memory.
+ *
+ * Solution:
+ *     An external merge sort. Dataset3 is read in chunks of about RUN_BYTES (32 MB), and each chunk is sorted by
+ * user id and spilled to a temporary "run" file on a worker thread while the next chunk is read. The runs
+ * are then merged (MAX_FAN_IN, 64, at a time), and the duplicates of a user end up next to each other in the
+ * order they were written, where the policy keeps either the first or the last copy. Memory use is bounded
+ * by the number of chunks in flight, not by the size of the file.
+ * Reference: Knuth, "The Art of Computer Programming, Vol. 3", 5.4 External Sorting
+ *
+ * The DiscoveredUsersSet is regenerated from the compacted Dataset3, so users that were marked as discovered
+ * but never made it to Dataset3 are dropped from it and get fetched again on the next crawl. Both files are
+ * written next to the originals and swapped in with atomic renames.
+ *
+ * Do not run it while the Miner is running, as the Miner appends to both files.
+ */
+public class DatasetCompactor {
+
+    /**
+     * Which copy of a duplicated user is kept.
+     */
+    public enum Policy {
+        FIRST,  // the first one written
+        LAST    // the last one written, ie. the most recent details
+    }
+
+    private static final int RUN_BYTES = 32 * 1024 * 1024;  // default line bytes per sorted run
+    private static final int MAX_FAN_IN = 64;               // default runs merged at once
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /*
+        One Dataset3 line and its user id.
+     */
+    private static final class Entry {
+        final int id;
+        final byte[] line;
+
+        Entry(int id, byte[] line) {
+            this.id = id;
+            this.line = line;
+        }
+    }
+
+    /*
+        Reads a run file one entry at a time. Runs are numbered in the order their lines were
+        written, which breaks ties between equal ids.
+     */
+    private static final class RunReader {
+        final int index;
+        final DataInputStream in;
+        Entry head;
+
+        RunReader(int index, File run) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+            advance();
+        }
+
+        void advance() throws IOException {
+            try {
+                int id = in.readInt();
+                byte[] line = new byte[in.readInt()];
+                in.readFully(line);
+                head = new Entry(id, line);
+            } catch (EOFException e) {
+                head = null;
+            }
+        }
+    }
+
+    /*
+        Receives the merged entries in order.
+     */
+    private interface EntryHandler {
+        void entry(Entry entry) throws IOException;
+    }
+
+    private final File file3;
+    private final File dUserSet;
+    private final Policy policy;
+    private final int runBytes;
+    private final int maxFanIn;
+
+    private long lines, malformed, kept;
+
+    /**
+     * @param file3     Dataset3
+     * @param dUserSet  DiscoveredUsersSet, rebuilt from Dataset3
+     * @param policy    Which copy of a duplicated user is kept
+     */
+    public DatasetCompactor(File file3, File dUserSet, Policy policy) {
+        this(file3, dUserSet, policy, RUN_BYTES, MAX_FAN_IN);
+    }
+
+    /**
+     * @param file3     Dataset3
+     * @param dUserSet  DiscoveredUsersSet, rebuilt from Dataset3
+     * @param policy    Which copy of a duplicated user is kept
+     * @param runBytes  Line bytes read into memory and sorted per run
+     * @param maxFanIn  Runs merged at once; more runs take extra merge passes
+     */
+    public DatasetCompactor(File file3, File dUserSet, Policy policy, int runBytes, int maxFanIn) {
+        this.file3 = file3;
+        this.dUserSet = dUserSet;
+        this.policy = policy;
+        this.runBytes = Math.max(1, runBytes);
+        this.maxFanIn = Math.max(2, maxFanIn);
+    }
+
+    /**
+     * Compacts both files and swaps them in.
+     *
+     * @throws IOException          If a file can't be read or written. The original files are left untouched
+     *                              unless the failure happens during the final renames.
+     * @throws InterruptedException Current thread is interrupted
+     */
+    public void compact() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        Path dir = file3.getAbsoluteFile().getParentFile().toPath();
+        Path tmpDir = Files.createTempDirectory(dir, "compact");     // same file system as the data, for the renames
+
+        try {
+            List<File> runs = spillRuns(tmpDir.toFile());
+            runs = reduceRuns(runs, tmpDir.toFile());
+
+            File new3 = new File(tmpDir.toFile(), file3.getName());
+            File newSet = new File(tmpDir.toFile(), dUserSet.getName());
+            writeCompacted(runs, new3, newSet);
+
+            long setLines = dUserSet.exists() ? countLines(dUserSet) : 0;
+
+            // DiscoveredUsersSet first: if we die between the renames, every user in it still has a Dataset3 entry.
+            Files.move(newSet.toPath(), dUserSet.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(new3.toPath(), file3.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            System.out.println("\n==============================================================================================================\n");
+            System.out.println(file3.getName() + ": " + lines + " lines read, " + kept + " users kept (" + policy
+                    + " copy), " + (lines - kept - malformed) + " duplicates removed, " + malformed + " malformed lines dropped");
+            System.out.println(dUserSet.getName() + ": " + setLines + " lines before, " + kept + " after");
+            System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+            System.out.println("\n==============================================================================================================\n");
+
+        } finally {
+            File[] leftovers = tmpDir.toFile().listFiles();
+            if (leftovers != null)
+                for (File f : leftovers)
+                    f.delete();
+            Files.deleteIfExists(tmpDir);
+        }
+    }
+
+    /**
+     * Reads Dataset3 in chunks and sorts and writes each chunk to a run file on the worker pool.
+     * The pool's queue is bounded and the reading thread sorts a chunk itself when the queue is full,
+     * so at most (threads + queue + 1) chunks are held in memory.
+     *
+     * @return  Run files, in the order their lines appear in Dataset3
+     */
+    private List<File> spillRuns(File tmpDir) throws IOException, InterruptedException {
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        List<Future<File>> futures = new ArrayList<>();
+        List<Entry> chunk = new ArrayList<>();
+        long[] chunkBytes = {0};
+
+        try {
+            IntegrityChecker.scanLines(file3, (buf, start, end, offset) -> {
+                lines++;
+                int id = IntegrityChecker.leadingInt(buf, start, end);
+                if (id < 0) {
+                    malformed++;
+                    return;
+                }
+
+                chunk.add(new Entry(id, Arrays.copyOfRange(buf, start, end)));
+                chunkBytes[0] += end - start;
+                if (chunkBytes[0] >= runBytes) {
+                    futures.add(submitRun(pool, new ArrayList<>(chunk), new File(tmpDir, "run" + futures.size())));
+                    chunk.clear();
+                    chunkBytes[0] = 0;
+                }
+            });
+            if (!chunk.isEmpty())
+                futures.add(submitRun(pool, chunk, new File(tmpDir, "run" + futures.size())));
+
+            List<File> runs = new ArrayList<>();
+            for (Future<File> f : futures)
+                runs.add(f.get());
+            return runs;
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Future<File> submitRun(ThreadPoolExecutor pool, List<Entry> chunk, File run) {
+        return pool.submit(() -> {
+            chunk.sort((a, b) -> Integer.compare(a.id, b.id));  // stable, so equal ids keep their written order
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+                for (Entry e : chunk) {
+                    out.writeInt(e.id);
+                    out.writeInt(e.line.length);
+                    out.write(e.line);
+                }
+            }
+            return run;
+        });
+    }
+
+    /**
+     * Merges neighbouring runs into bigger runs until at most maxFanIn are left. Only neighbours are
+     * merged together so that the run order still follows the written order.
+     */
+    private List<File> reduceRuns(List<File> runs, File tmpDir) throws IOException {
+        int pass = 0;
+        while (runs.size() > maxFanIn) {
+            List<File> merged = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += maxFanIn) {
+                List<File> group = runs.subList(from, Math.min(from + maxFanIn, runs.size()));
+                File out = new File(tmpDir, "pass" + pass + "-" + merged.size());
+
+                try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), BUFFER_SIZE))) {
+                    merge(group, e -> {
+                        dos.writeInt(e.id);
+                        dos.writeInt(e.line.length);
+                        dos.write(e.line);
+                    });
+                }
+                for (File f : group)
+                    f.delete();
+                merged.add(out);
+            }
+            runs = merged;
+            pass++;
+        }
+        return runs;
+    }
+
+    /**
+     * Merges the last runs and writes one Dataset3 line (and its DiscoveredUsersSet line) per user id.
+     */
+    private void writeCompacted(List<File> runs, File new3, File newSet) throws IOException {
+        try (OutputStream out3 = new BufferedOutputStream(new FileOutputStream(new3), BUFFER_SIZE);
+             OutputStream outSet = new BufferedOutputStream(new FileOutputStream(newSet), BUFFER_SIZE)) {
+
+            Entry[] pending = {null};   // the copy of the current user that will be kept
+            EntryHandler write = e -> {
+                out3.write(e.line);
+                out3.write('\n');
+                outSet.write(Integer.toString(e.id).getBytes(StandardCharsets.US_ASCII));
+                outSet.write(',');
+                outSet.write(loginOf(e.line));
+                outSet.write('\n');
+                kept++;
+            };
+
+            merge(runs, e -> {
+                if (pending[0] != null && pending[0].id != e.id) {
+                    write.entry(pending[0]);
+                    pending[0] = null;
+                }
+                if (pending[0] == null || policy == Policy.LAST)
+                    pending[0] = e;
+            });
+            if (pending[0] != null)
+                write.entry(pending[0]);
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs by user id. Equal ids come out in run order.
+     */
+    private static void merge(List<File> runs, EntryHandler handler) throws IOException {
+        PriorityQueue<RunReader> heap = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int c = Integer.compare(a.head.id, b.head.id);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(i, runs.get(i));
+                readers.add(reader);
+                if (reader.head != null)
+                    heap.add(reader);
+            }
+
+            while (!heap.isEmpty()) {
+                RunReader reader = heap.poll();
+                handler.entry(reader.head);
+                reader.advance();
+                if (reader.head != null)
+                    heap.add(reader);
+            }
+        } finally {
+            for (RunReader reader : readers)
+                reader.in.close();
+        }
+    }
+
+    /**
+     * Extracts the login, the first quoted field of a Dataset3 line ("id: "login", ...").
+     */
+    private static byte[] loginOf(byte[] line) {
+        int open = 0;
+        while (open < line.length && line[open] != '"')
+            open++;
+        int close = open + 1;
+        while (close < line.length && line[close] != '"')
+            close++;
+        return open >= line.length ? new byte[0] : Arrays.copyOfRange(line, open + 1, Math.min(close, line.length));
+    }
+
+    private static long countLines(File file) throws IOException {
+        long[] count = {0};
+        IntegrityChecker.scanLines(file, (buf, start, end, offset) -> count[0]++);
+        return count[0];
+    }
+
+    /*
+        Main method. Takes the policy ("first" or "last", the default) as its only argument.
+    */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Policy policy = args.length > 0 ? Policy.valueOf(args[0].toUpperCase()) : Policy.LAST;
+
+        DatasetCompactor compactor = new DatasetCompactor(
+                new File("data/Dataset3.txt"),
+                new File("data/DiscoveredUsersSet.txt"),
+                policy);
+        compactor.compact();
+    }
+}
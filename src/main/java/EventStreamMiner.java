@@ -0,0 +1,286 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the public events feed (https://api.github.com/events) to find repositories as they are
+ * created or worked on, rather than waiting for listAllPublicRepositories(since) to reach them.
+ *
+ * The feed is polled with the ETag of the previous response ("If-None-Match"), so an unchanged feed
+ * answers 304 Not Modified and doesn't count against the rate limit. The server tells us how often
+ * we may poll through the "X-Poll-Interval" header; we never poll faster than that. A poll follows the
+ * feed's "next" pages back to the newest event of the previous poll, up to the MAX_EVENTS the feed keeps.
+ * If even the oldest of those is newer, events were missed in between, and that gap is reported.
+ * Reference: https://developer.github.com/v3/activity/events/
+ *
+ * Only the repository of a CreateEvent (for a new repository), PushEvent or MemberEvent is passed on.
+ * Its contributors (and any new users among them) are picked up by the regular repository processing.
+ *
+ * Mining a repository takes several api calls, far longer than a poll, so the polling loop only queues the
+ * repositories; a second thread hands them to the Listener one at a time. The queue holds at most MAX_QUEUED
+ * repositories, and a repository already waiting in it isn't queued twice. Repositories that don't fit are
+ * dropped and reported; the backfill still reaches them later.
+ *
+ * The feed URL is built from the configured API endpoint, so this can be pointed at a local stand-in server.
+ * run() keeps polling until stop() is called; stop() lets the current repository finish and drops the rest of the queue.
+ */
+public class EventStreamMiner implements Runnable {
+
+    /**
+     * Receives the repositories found in the feed. onRepository() is called on the event stream's mining thread.
+     */
+    public interface Listener {
+        void onRepository(int id, String fullName);
+        void onError(String message);
+    }
+
+    private static final int DEFAULT_POLL_INTERVAL = 60;   // seconds, used until the server tells us otherwise
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_EVENTS = 300;              // the feed doesn't go back further than this
+    private static final int MAX_QUEUED = 10000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /*
+        A repository waiting to be mined.
+     */
+    private static final class QueuedRepository {
+        final int id;
+        final String fullName;
+
+        QueuedRepository(int id, String fullName) {
+            this.id = id;
+            this.fullName = fullName;
+        }
+    }
+
+    private final URL eventsUrl;
+    private final String token;
+    private final HttpConnector connector;
+    private final Listener listener;
+
+    private final BlockingQueue<QueuedRepository> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+
+    // Polling thread only.
+    private String etag = null;
+    private long lastEventId = 0;   // events at or below this id were already queued
+    private int pollInterval = DEFAULT_POLL_INTERVAL;
+    private long dropped = 0;
+
+    private volatile boolean running = true;
+
+    public EventStreamMiner(String apiUrl, String token, HttpConnector connector, Listener listener) throws IOException {
+        this.eventsUrl = new URL(apiUrl + "/events?per_page=" + PAGE_SIZE);
+        this.token = token;
+        this.connector = connector;
+        this.listener = listener;
+    }
+
+    /**
+     * Polls the feed until stop() is called, while a second thread mines the queued repositories.
+     * A failed poll is reported and retried on the next interval.
+     */
+    @Override
+    public void run() {
+        Thread miner = new Thread(this::mine, "event-miner");
+        miner.setDaemon(true);
+        miner.start();
+
+        try {
+            while (running) {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    listener.onError("Events: " + e.getMessage());
+                }
+
+                synchronized (this) {
+                    long wakeUp = System.currentTimeMillis() + pollInterval * 1000L;
+                    for (long left = pollInterval * 1000L; running && left > 0; left = wakeUp - System.currentTimeMillis())
+                        wait(left);
+                }
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+
+        try {
+            miner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mining thread: hands the queued repositories to the Listener until stop() is called.
+     */
+    private void mine() {
+        try {
+            while (running)
+                mineNext(1000);
+        } catch (InterruptedException e) {
+            // stop
+        }
+    }
+
+    /**
+     * Hands the next queued repository to the Listener, waiting up to 'timeout' milliseconds for one.
+     *
+     * @return  False, if nothing was queued
+     */
+    boolean mineNext(long timeout) throws InterruptedException {
+        QueuedRepository repo = queue.poll(timeout, TimeUnit.MILLISECONDS);
+        if (repo == null)
+            return false;
+
+        queued.remove(repo.id);
+        listener.onRepository(repo.id, repo.fullName);
+        return true;
+    }
+
+    /**
+     * Tells both loops to finish. A repository being processed is finished first; a waiting loop
+     * returns right away. Join the thread running this to wait for it.
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    /**
+     * @return  Seconds between polls, as last told by the server
+     */
+    int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Fetches the feed once, back to the last event seen, and queues every repository in an event we haven't seen before.
+     *
+     * @throws IOException  If a request fails or the server answers with an unexpected status
+     */
+    void poll() throws IOException {
+        List<JsonNode> events = new ArrayList<>();     // newest first, like the feed
+        URL page = eventsUrl;
+        boolean first = true;
+
+        while (page != null && events.size() < MAX_EVENTS) {
+            HttpURLConnection uc = connector.connect(page);
+            uc.setRequestProperty("Accept", "application/vnd.github.v3+json");
+            if (token != null && !token.isEmpty())
+                uc.setRequestProperty("Authorization", "token " + token);
+            if (first && etag != null)
+                uc.setRequestProperty("If-None-Match", etag);
+
+            try {
+                int code = uc.getResponseCode();
+
+                if (first) {
+                    String interval = uc.getHeaderField("X-Poll-Interval");
+                    if (interval != null) {
+                        try {
+                            pollInterval = Math.max(1, Integer.parseInt(interval));
+                        } catch (NumberFormatException e) {
+                            pollInterval = DEFAULT_POLL_INTERVAL;
+                        }
+                    }
+                    if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                        return;     // nothing new since the last poll
+                }
+                if (code != HttpURLConnection.HTTP_OK)
+                    throw new IOException("Server returned HTTP response code: " + code + " for URL: " + page);
+
+                if (first)
+                    etag = uc.getHeaderField("ETag");
+
+                JsonNode body;
+                try (InputStream in = uc.getInputStream()) {
+                    body = MAPPER.readTree(in);
+                }
+                for (JsonNode event : body)
+                    events.add(event);
+
+                // Stop once the page reaches back to events we have already seen.
+                boolean caughtUp = body.size() == 0 || body.get(body.size() - 1).path("id").asLong() <= lastEventId;
+                page = caughtUp ? null : RecordFetcher.nextPage(uc.getHeaderField("Link"));
+                first = false;
+
+            } finally {
+                uc.disconnect();
+            }
+        }
+
+        // Event ids aren't consecutive, so only not reaching back to the last event seen tells of a gap.
+        if (lastEventId > 0 && !events.isEmpty()) {
+            long oldest = events.get(events.size() - 1).path("id").asLong();
+            if (oldest > lastEventId)
+                listener.onError("Events: the feed moved on faster than it was read; events between "
+                        + lastEventId + " and " + oldest + " were missed.");
+        }
+        dispatch(events);
+    }
+
+    /**
+     * The feed lists the newest event first and successive polls overlap, so events are queued oldest
+     * first and anything at or below the newest id seen in a previous poll is skipped.
+     */
+    private void dispatch(List<JsonNode> events) {
+        long newest = lastEventId;
+
+        for (int i = events.size() - 1; i >= 0; i--) {
+            JsonNode event = events.get(i);
+
+            long eventId = event.path("id").asLong();
+            if (eventId <= lastEventId)
+                continue;
+            newest = Math.max(newest, eventId);
+
+            String type = event.path("type").asText();
+            boolean wanted;
+            switch (type) {
+                case "CreateEvent":
+                    // CreateEvent also covers branches and tags; only a new repository is interesting here
+                    wanted = "repository".equals(event.path("payload").path("ref_type").asText());
+                    break;
+                case "PushEvent":
+                case "MemberEvent":
+                    wanted = true;
+                    break;
+                default:
+                    wanted = false;
+            }
+
+            JsonNode repo = event.path("repo");
+            if (wanted && repo.has("id") && repo.has("name"))
+                enqueue(repo.path("id").asInt(), repo.path("name").asText());
+        }
+
+        lastEventId = newest;
+
+        if (dropped > 0) {
+            listener.onError("Events: mining is behind; " + dropped + " repositories didn't fit in the queue and were dropped.");
+            dropped = 0;
+        }
+    }
+
+    private void enqueue(int id, String fullName) {
+        if (!queued.add(id))
+            return;     // already waiting
+        if (!queue.offer(new QueuedRepository(id, fullName))) {
+            queued.remove(id);
+            dropped++;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the referential integrity of the data sets after a crawl:
+ *      - every contributor id in Dataset1 has an entry in Dataset3 (dangling contributor ids)
+ *      - DiscoveredUsersSet lists the same user ids in the same order as Dataset3 (order divergence)
+ *      - no user id appears twice in Dataset3 or DiscoveredUsersSet
+ *      - logins that belong to more than one id (listed only: a renamed account frees its login for another)
+ *      - Dataset1 and Dataset2 list the same repositories, in increasing id order, and the widest
+ *        id gaps the crawl skipped over
+ *
+ * Each file is streamed once, on its own thread, straight from the bytes (ids and logins are ASCII) without
+ * building a String per line. Ids are collected in compressed bitmaps (RoaringBitmap), so tens of millions
+ * of ids take a few megabytes and the cross-file checks are bitmap set operations.
+ * Reference: https://roaringbitmap.org/
+ *
+ * Dataset3 and DiscoveredUsersSet are compared in blocks of BLOCK_LINES lines: each scan keeps a hash of the
+ * ids of every block, and only the first block whose hashes differ is re-read to find the exact lines.
+ * Duplicate logins are found the same way: a bitmap of login hashes points out the few logins whose hash was
+ * seen twice, and only those are collected in a short second pass to weed out hash collisions.
+ */
+public class IntegrityChecker {
+
+    private static final int SAMPLE_SIZE = 10;      // offending ids printed per problem
+    private static final int BLOCK_LINES = 1024;    // lines per order-comparison block
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Receives one line of a file as a range of bytes, without the line terminator.
+     */
+    interface LineHandler {
+        void line(byte[] buf, int start, int end, long offset);
+    }
+
+    /*
+        Results of a Dataset3 or DiscoveredUsersSet scan.
+     */
+    private static final class UserScan {
+        final RoaringBitmap ids = new RoaringBitmap();
+        final RoaringBitmap loginHashes = new RoaringBitmap();      // DiscoveredUsersSet only
+        final RoaringBitmap loginCollisions = new RoaringBitmap();
+        final List<Integer> duplicateIds = new ArrayList<>();
+        long[] blockHashes = new long[1024];
+        long[] blockOffsets = new long[1024];
+        int blocks = 0;
+        long lines, duplicates;
+        long hash;  // of the block being read
+
+        void startBlock(long offset) {
+            if (blocks == blockHashes.length) {
+                blockHashes = Arrays.copyOf(blockHashes, blocks * 2);
+                blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+            }
+            blockOffsets[blocks] = offset;
+            hash = 1;
+        }
+
+        void endBlock() {
+            blockHashes[blocks++] = hash;
+        }
+    }
+
+    /*
+        Results of a Dataset1 or Dataset2 scan.
+     */
+    private static final class RepoScan {
+        final RoaringBitmap repoIds = new RoaringBitmap();
+        final RoaringBitmap contributorIds = new RoaringBitmap();   // Dataset1 only
+        final List<Integer> duplicateIds = new ArrayList<>();
+        final List<Integer> outOfOrderIds = new ArrayList<>();
+        final PriorityQueue<long[]> widestGaps = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        long lines, duplicates, outOfOrder, malformed;
+        long previous = -1;
+    }
+
+    private final File file1;
+    private final File file2;
+    private final File file3;
+    private final File dUserSet;
+
+    public IntegrityChecker(File file1, File file2, File file3, File dUserSet) {
+        this.file1 = file1;
+        this.file2 = file2;
+        this.file3 = file3;
+        this.dUserSet = dUserSet;
+    }
+
+    /**
+     * Runs all checks and prints a report.
+     *
+     * @return  Number of problems found
+     * @throws IOException          If any of the files can't be read
+     * @throws InterruptedException Current thread is interrupted
+     */
+    public long check() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        // one scan per file; more threads than cores only makes the scans fight over the cpu
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        UserScan ds3, set;
+        RepoScan ds1, ds2;
+        try {
+            Future<UserScan> ds3Future = pool.submit(() -> scanUsers(file3, false));
+            Future<UserScan> setFuture = pool.submit(() -> scanUsers(dUserSet, true));
+            Future<RepoScan> ds1Future = pool.submit(() -> scanRepos(file1, true));
+            Future<RepoScan> ds2Future = pool.submit(() -> scanRepos(file2, false));
+
+            ds3 = ds3Future.get();
+            set = setFuture.get();
+            ds1 = ds1Future.get();
+            ds2 = ds2Future.get();
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long problems = 0;
+        System.out.println("\n==============================================================================================================\n");
+
+        // --- Users --- //
+        System.out.println(file3.getName() + ": " + ds3.lines + " lines, " + ds3.ids.getCardinality() + " distinct user ids");
+        System.out.println(dUserSet.getName() + ": " + set.lines + " lines, " + set.ids.getCardinality() + " distinct user ids");
+        problems += report("Duplicate user ids in " + file3.getName(), ds3.duplicates, ds3.duplicateIds);
+        problems += report("Duplicate user ids in " + dUserSet.getName(), set.duplicates, set.duplicateIds);
+        problems += compareOrder(ds3, set);
+
+        Map<String, List<Integer>> sharedLogins = findSharedLogins(set.loginCollisions);
+        List<String> loginSample = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> e : sharedLogins.entrySet())
+            if (loginSample.size() < SAMPLE_SIZE)
+                loginSample.add(e.getKey() + "=" + e.getValue());
+        // A login freed by a rename can be taken by another account, so shared logins are listed but not counted as problems.
+        report("Logins shared by more than one user id (not counted)", sharedLogins.size(), loginSample);
+
+        // --- Repositories --- //
+        System.out.println(file1.getName() + ": " + ds1.lines + " lines, " + ds1.repoIds.getCardinality() + " distinct repository ids");
+        System.out.println(file2.getName() + ": " + ds2.lines + " lines, " + ds2.repoIds.getCardinality() + " distinct repository ids");
+        problems += report("Malformed lines in " + file1.getName() + " / " + file2.getName(), ds1.malformed + ds2.malformed, new ArrayList<>());
+        problems += report("Duplicate repository ids in " + file1.getName(), ds1.duplicates, ds1.duplicateIds);
+        problems += report("Duplicate repository ids in " + file2.getName(), ds2.duplicates, ds2.duplicateIds);
+        problems += report("Out of order repository ids in " + file1.getName(), ds1.outOfOrder, ds1.outOfOrderIds);
+        problems += report("Out of order repository ids in " + file2.getName(), ds2.outOfOrder, ds2.outOfOrderIds);
+
+        RoaringBitmap onlyIn1 = RoaringBitmap.andNot(ds1.repoIds, ds2.repoIds);
+        RoaringBitmap onlyIn2 = RoaringBitmap.andNot(ds2.repoIds, ds1.repoIds);
+        problems += report("Repository ids in " + file1.getName() + " but not " + file2.getName(), onlyIn1.getCardinality(), sample(onlyIn1));
+        problems += report("Repository ids in " + file2.getName() + " but not " + file1.getName(), onlyIn2.getCardinality(), sample(onlyIn2));
+
+        // --- Cross references --- //
+        RoaringBitmap dangling = RoaringBitmap.andNot(ds1.contributorIds, ds3.ids);
+        System.out.println(file1.getName() + ": " + ds1.contributorIds.getCardinality() + " distinct contributor ids");
+        problems += report("Contributor ids in " + file1.getName() + " without a " + file3.getName() + " entry", dangling.getCardinality(), sample(dangling));
+
+        // Gaps are expected (forks and skipped repositories), so they are listed but not counted as problems.
+        List<long[]> gaps = new ArrayList<>(ds1.widestGaps);
+        gaps.sort((a, b) -> Long.compare(b[0], a[0]));
+        System.out.println("Widest repository id gaps in " + file1.getName() + ":");
+        for (long[] gap : gaps)
+            System.out.println("\t" + gap[0] + " ids skipped between " + gap[1] + " and " + gap[2]);
+
+        System.out.println("\n" + problems + " problems found in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("\n==============================================================================================================\n");
+        return problems;
+    }
+
+    /**
+     * Streams Dataset3 ("id: ...") or DiscoveredUsersSet ("id,login").
+     */
+    private UserScan scanUsers(File file, boolean withLogins) throws IOException {
+        UserScan scan = new UserScan();
+
+        scanLines(file, (buf, start, end, offset) -> {
+            if (scan.lines % BLOCK_LINES == 0) {
+                if (scan.lines > 0)
+                    scan.endBlock();
+                scan.startBlock(offset);
+            }
+            scan.lines++;
+
+            int id = leadingInt(buf, start, end);
+            scan.hash = scan.hash * 31 + id;
+            if (id >= 0 && !scan.ids.checkedAdd(id)) {
+                scan.duplicates++;
+                sample(scan.duplicateIds, id);
+            }
+
+            if (withLogins) {
+                int hash = loginHash(buf, start, end);
+                if (!scan.loginHashes.checkedAdd(hash))
+                    scan.loginCollisions.add(hash);
+            }
+        });
+
+        if (scan.lines > 0)
+            scan.endBlock();    // the last, possibly partial, block
+        return scan;
+    }
+
+    /**
+     * Streams Dataset1 ("id: user user ...") or Dataset2 ("id: ...").
+     */
+    private RepoScan scanRepos(File file, boolean withContributors) throws IOException {
+        RepoScan scan = new RepoScan();
+
+        scanLines(file, (buf, start, end, offset) -> {
+            scan.lines++;
+
+            int id = leadingInt(buf, start, end);
+            if (id < 0) {
+                scan.malformed++;
+                return;
+            }
+
+            if (!scan.repoIds.checkedAdd(id)) {
+                scan.duplicates++;
+                sample(scan.duplicateIds, id);
+            }
+
+            if (id <= scan.previous) {
+                scan.outOfOrder++;
+                sample(scan.outOfOrderIds, id);
+            } else {
+                if (scan.previous >= 0)
+                    keepWidest(scan.widestGaps, new long[] {id - scan.previous - 1, scan.previous, id});
+                scan.previous = id;
+            }
+
+            if (withContributors)
+                addContributors(buf, start, end, scan.contributorIds);
+        });
+        return scan;
+    }
+
+    /**
+     * Compares the block hashes of Dataset3 and DiscoveredUsersSet, then re-reads the first
+     * differing block of both files to report the exact lines.
+     *
+     * @return  Number of diverging blocks
+     */
+    private long compareOrder(UserScan ds3, UserScan set) throws IOException {
+        int common = Math.min(ds3.blocks, set.blocks);
+        long diverged = Math.max(ds3.blocks, set.blocks) - common;
+        int first = diverged > 0 ? common : -1;
+
+        for (int b = common - 1; b >= 0; b--) {
+            if (ds3.blockHashes[b] != set.blockHashes[b]) {
+                diverged++;
+                first = b;
+            }
+        }
+
+        List<String> samples = new ArrayList<>();
+        if (first >= 0) {
+            long from3 = first < ds3.blocks ? ds3.blockOffsets[first] : file3.length();
+            long fromSet = first < set.blocks ? set.blockOffsets[first] : dUserSet.length();
+
+            try (BufferedReader in3 = open(file3, from3); BufferedReader inSet = open(dUserSet, fromSet)) {
+                for (int i = 0; i < BLOCK_LINES && samples.size() < SAMPLE_SIZE; i++) {
+                    String line3 = in3.readLine();
+                    String lineSet = inSet.readLine();
+                    if (line3 == null && lineSet == null)
+                        break;
+
+                    int id3 = line3 == null ? -1 : leadingInt(line3);
+                    int idSet = lineSet == null ? -1 : leadingInt(lineSet);
+                    if (id3 != idSet)
+                        samples.add("line " + ((long) first * BLOCK_LINES + i + 1) + ": " + id3 + " vs " + idSet);
+                }
+            }
+        }
+
+        return report("Blocks of " + BLOCK_LINES + " lines where " + dUserSet.getName() + " and " + file3.getName()
+                + " diverge (lines of the first block listed)", diverged, samples);
+    }
+
+    /**
+     * Collects the ids of the logins whose hash was seen more than once, and keeps the
+     * ones that really are the same login under different ids.
+     */
+    private Map<String, List<Integer>> findSharedLogins(RoaringBitmap candidates) throws IOException {
+        Map<String, List<Integer>> logins = new HashMap<>();
+        if (candidates.isEmpty())
+            return logins;
+
+        scanLines(dUserSet, (buf, start, end, offset) -> {
+            if (!candidates.contains(loginHash(buf, start, end)))
+                return;
+
+            int comma = indexOf(buf, start, end, (byte) ',');
+            String login = new String(buf, comma + 1, end - comma - 1, StandardCharsets.UTF_8).toLowerCase();
+            List<Integer> ids = logins.computeIfAbsent(login, k -> new ArrayList<>());
+            int id = leadingInt(buf, start, end);
+            if (!ids.contains(id))
+                ids.add(id);
+        });
+
+        logins.values().removeIf(ids -> ids.size() < 2);
+        return logins;
+    }
+
+    /*
+        Helpers
+     */
+
+    /**
+     * Reads a file in large chunks and hands every line to the handler as a byte range.
+     * A line split across two chunks is moved to the front of the buffer before the next read.
+     */
+    static void scanLines(File file, LineHandler handler) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int filled = 0;
+        long bufOffset = 0;     // file offset of buf[0]
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buf, filled, buf.length - filled)) != -1) {
+                filled += read;
+
+                int start = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (buf[i] == '\n') {
+                        int end = (i > start && buf[i - 1] == '\r') ? i - 1 : i;
+                        handler.line(buf, start, end, bufOffset + start);
+                        start = i + 1;
+                    }
+                }
+
+                // keep the incomplete last line
+                filled -= start;
+                System.arraycopy(buf, start, buf, 0, filled);
+                bufOffset += start;
+                if (filled == buf.length)
+                    buf = Arrays.copyOf(buf, buf.length * 2);   // a single line longer than the buffer
+            }
+
+            if (filled > 0)
+                handler.line(buf, 0, filled, bufOffset);
+        }
+    }
+
+    private static BufferedReader open(File file, long from) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        in.getChannel().position(from);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the id at the start of a line.
+     *
+     * @return  The id, or -1 if the line doesn't start with one
+     */
+    static int leadingInt(byte[] buf, int start, int end) {
+        int value = 0, i = start;
+        for (; i < end; i++) {
+            byte c = buf[i];
+            if (c < '0' || c > '9')
+                break;
+            value = value * 10 + (c - '0');
+        }
+        return i == start ? -1 : value;
+    }
+
+    private static int leadingInt(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return leadingInt(bytes, 0, bytes.length);
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; i++)
+            if (buf[i] == b)
+                return i;
+        return end;
+    }
+
+    /**
+     * Adds the space separated ids after the ':' of a Dataset1 line.
+     */
+    private static void addContributors(byte[] buf, int start, int end, RoaringBitmap into) {
+        int value = 0;
+        boolean inNumber = false;
+
+        for (int i = indexOf(buf, start, end, (byte) ':') + 1; i < end; i++) {
+            byte c = buf[i];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                inNumber = true;
+            } else if (inNumber) {
+                into.add(value);
+                value = 0;
+                inNumber = false;
+            }
+        }
+        if (inNumber)
+            into.add(value);
+    }
+
+    /**
+     * Hashes the login after the ',' of a DiscoveredUsersSet line. Github logins are case insensitive ASCII.
+     */
+    private static int loginHash(byte[] buf, int start, int end) {
+        int hash = 0;
+        for (int i = indexOf(buf, start, end, (byte) ',') + 1; i < end; i++) {
+            byte c = buf[i];
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            hash = hash * 31 + c;
+        }
+        return hash;
+    }
+
+    private static void keepWidest(PriorityQueue<long[]> gaps, long[] gap) {
+        if (gap[0] <= 0)
+            return;
+        gaps.add(gap);
+        if (gaps.size() > SAMPLE_SIZE)
+            gaps.poll();    // drop the narrowest
+    }
+
+    private static void sample(List<Integer> samples, int id) {
+        if (samples.size() < SAMPLE_SIZE)
+            samples.add(id);
+    }
+
+    private static List<Integer> sample(RoaringBitmap bitmap) {
+        List<Integer> samples = new ArrayList<>();
+        IntIterator iter = bitmap.getIntIterator();
+        while (iter.hasNext() && samples.size() < SAMPLE_SIZE)
+            samples.add(iter.next());
+        return samples;
+    }
+
+    /**
+     * Prints one line of the report.
+     *
+     * @return  The count, so callers can add up the problems
+     */
+    private static long report(String title, long count, List<?> samples) {
+        if (count == 0)
+            System.out.println(title + ": OKAY");
+        else
+            System.out.println(title + ": " + count + " ******************************************************\n\t" + samples);
+        return count;
+    }
+
+    /*
+        Main method. Exits with 1 if any problem is found, so it can be run after every crawl.
+    */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        IntegrityChecker checker = new IntegrityChecker(
+                new File("data/Dataset1.txt"),
+                new File("data/Dataset2.txt"),
+                new File("data/Dataset3.txt"),
+                new File("data/DiscoveredUsersSet.txt"));
+
+        System.exit(checker.check() > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Stores the mined data in an embedded H2 database file (ie. jdbc:h2:./data/GithubData) so the data sets
+ * are already loaded into indexed tables as we crawl, rather than imported from the text files afterwards.
+ *
+ * Rows are added to prepared statement batches and sent to the database in a single transaction every
+ * BATCH_SIZE rows, or whenever flush() is called. MERGE (H2's upsert) is used instead of INSERT so that
+ * rows written again after a restart replace the earlier copy instead of failing the batch. A repository's
+ * contributor edges are deleted before its edges are added, in the same transaction, so edges of an earlier
+ * attempt that aren't part of the new list don't linger.
+ * Reference: http://www.h2database.com/html/grammar.html#merge
+ *
+ * Repositories found through the event stream go to their own tables, event_repositories and event_contributors,
+ * with the same columns as repositories and contributors.
+ */
+public class JdbcSink implements Sink {
+
+    private static final int BATCH_SIZE = 500;  // rows buffered before the transaction is committed
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS users (id INT PRIMARY KEY, login VARCHAR NOT NULL, location VARCHAR, "
+                    + "followers INT, following INT)",
+            "CREATE TABLE IF NOT EXISTS repositories (id INT PRIMARY KEY, full_name VARCHAR NOT NULL, created_at TIMESTAMP, "
+                    + "description VARCHAR, language VARCHAR, stargazers INT, watchers INT, forks INT)",
+            "CREATE TABLE IF NOT EXISTS contributors (repo_id INT NOT NULL, user_id INT NOT NULL, position INT NOT NULL, "
+                    + "PRIMARY KEY (repo_id, user_id))",
+            "CREATE TABLE IF NOT EXISTS event_repositories (id INT PRIMARY KEY, full_name VARCHAR NOT NULL, created_at TIMESTAMP, "
+                    + "description VARCHAR, language VARCHAR, stargazers INT, watchers INT, forks INT)",
+            "CREATE TABLE IF NOT EXISTS event_contributors (repo_id INT NOT NULL, user_id INT NOT NULL, position INT NOT NULL, "
+                    + "PRIMARY KEY (repo_id, user_id))",
+            "CREATE INDEX IF NOT EXISTS users_login ON users (login)",
+            "CREATE INDEX IF NOT EXISTS contributors_user ON contributors (user_id)",
+            "CREATE INDEX IF NOT EXISTS event_contributors_user ON event_contributors (user_id)"
+    };
+
+    private final Connection conn;
+    private final PreparedStatement userStmt;
+    private final PreparedStatement repoStmt;
+    private final PreparedStatement edgeStmt;
+    private final PreparedStatement clearEdgesStmt;
+    private final PreparedStatement eventRepoStmt;
+    private final PreparedStatement eventEdgeStmt;
+    private final PreparedStatement clearEventEdgesStmt;
+
+    private int pendingRows = 0;    // guarded by 'this'
+
+    /**
+     * Opens (or creates) the database and its tables.
+     *
+     * @param url           JDBC url of the database
+     * @throws IOException  If the database can't be opened or the tables can't be created
+     */
+    public JdbcSink(String url) throws IOException {
+        try {
+            conn = DriverManager.getConnection(url);
+
+            try (Statement st = conn.createStatement()) {
+                for (String ddl : SCHEMA)
+                    st.execute(ddl);
+            }
+            conn.setAutoCommit(false);
+
+            userStmt = conn.prepareStatement("MERGE INTO users KEY (id) VALUES (?, ?, ?, ?, ?)");
+            repoStmt = conn.prepareStatement("MERGE INTO repositories KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            edgeStmt = conn.prepareStatement("MERGE INTO contributors KEY (repo_id, user_id) VALUES (?, ?, ?)");
+            clearEdgesStmt = conn.prepareStatement("DELETE FROM contributors WHERE repo_id = ?");
+            eventRepoStmt = conn.prepareStatement("MERGE INTO event_repositories KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            eventEdgeStmt = conn.prepareStatement("MERGE INTO event_contributors KEY (repo_id, user_id) VALUES (?, ?, ?)");
+            clearEventEdgesStmt = conn.prepareStatement("DELETE FROM event_contributors WHERE repo_id = ?");
+
+        } catch (SQLException e) {
+            throw new IOException("Could not open database " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int loadDiscoveredUsers(MapSet<Integer, String> discovered) throws IOException {
+        int count = 0;
+
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, login FROM users")) {
+
+            while (rs.next()) {
+                if (!discovered.put(rs.getInt(1), rs.getString(2)))
+                    throw new IOException("MapSet.put returned False on a new insertion set..."); // cautionary code. This shouldn't ever trigger.
+                count ++;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void writeUser(UserRecord user) throws IOException {
+        try {
+            userStmt.setInt(1, user.id);
+            userStmt.setString(2, user.login);
+            userStmt.setString(3, user.location);
+            userStmt.setInt(4, user.followers);
+            userStmt.setInt(5, user.following);
+            userStmt.addBatch();
+
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        rowsAdded(1);
+    }
+
+    @Override
+    public synchronized void writeRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException {
+        addRepository(repoStmt, clearEdgesStmt, edgeStmt, repo, contributors);
+    }
+
+    @Override
+    public synchronized void writeEventRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException {
+        addRepository(eventRepoStmt, clearEventEdgesStmt, eventEdgeStmt, repo, contributors);
+    }
+
+    /**
+     * Batches a repository, the removal of its old contributor edges and its new ones into the given statements.
+     */
+    private void addRepository(PreparedStatement repoStmt, PreparedStatement clearEdgesStmt, PreparedStatement edgeStmt,
+                               RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException {
+        try {
+            repoStmt.setInt(1, repo.id);
+            repoStmt.setString(2, repo.fullName);
+            if (repo.createdAt != null)
+                repoStmt.setTimestamp(3, new Timestamp(repo.createdAt.getTime()));
+            else
+                repoStmt.setNull(3, Types.TIMESTAMP);
+            repoStmt.setString(4, repo.description);
+            repoStmt.setString(5, repo.language);
+            repoStmt.setInt(6, repo.stargazers);
+            repoStmt.setInt(7, repo.watchers);
+            repoStmt.setInt(8, repo.forks);
+            repoStmt.addBatch();
+
+            clearEdgesStmt.setInt(1, repo.id);
+            clearEdgesStmt.addBatch();
+
+            for (ContributorEdge edge : contributors) {
+                edgeStmt.setInt(1, edge.repoId);
+                edgeStmt.setInt(2, edge.userId);
+                edgeStmt.setInt(3, edge.position);
+                edgeStmt.addBatch();
+            }
+
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        rowsAdded(1 + contributors.size());
+    }
+
+    /**
+     * Commits once enough rows have been batched up.
+     */
+    private void rowsAdded(int rows) throws IOException {
+        pendingRows += rows;
+        if (pendingRows >= BATCH_SIZE)
+            flush();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pendingRows == 0)
+            return;
+
+        try {
+            // Users first, so a repository's contributors are never committed ahead of the users they reference.
+            // Old edges are deleted before any new edge of the batch is added.
+            userStmt.executeBatch();
+            repoStmt.executeBatch();
+            clearEdgesStmt.executeBatch();
+            edgeStmt.executeBatch();
+            eventRepoStmt.executeBatch();
+            clearEventEdgesStmt.executeBatch();
+            eventEdgeStmt.executeBatch();
+            conn.commit();
+            pendingRows = 0;
+
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException r) {
+                e.addSuppressed(r);
+            }
+            throw new IOException("Committing batch failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
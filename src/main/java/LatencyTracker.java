@@ -0,0 +1,104 @@
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent response latencies of each API endpoint and answers percentile queries on them.
+ *
+ * Endpoints are the URL path with the owner, repository and user names replaced by '*', so that
+ * "/repos/kohsuke/github-api/contributors" and "/repos/foo/bar/contributors" share one window.
+ * Each window is a ring buffer of the last WINDOW_SIZE samples, so the percentiles follow the API
+ * as it speeds up or slows down.
+ */
+public class LatencyTracker {
+
+    private static final int WINDOW_SIZE = 256;
+    private static final int MIN_SAMPLES = 20;  // fewer samples than this say nothing about the tail
+
+    /*
+        Ring buffer of one endpoint's latencies.
+     */
+    private static final class Window {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int next = 0;
+        private int count = 0;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        synchronized long percentile(double p) {
+            if (count < MIN_SAMPLES)
+                return -1;
+
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Records how long a request to the endpoint took.
+     *
+     * @param endpoint  Endpoint key, see endpointOf()
+     * @param millis    Time until the response (or the failure) arrived
+     */
+    public void record(String endpoint, long millis) {
+        windows.computeIfAbsent(endpoint, k -> new Window()).add(millis);
+    }
+
+    /**
+     * @param endpoint  Endpoint key, see endpointOf()
+     * @param p         Percentile between 0 and 1 (ie. 0.99)
+     * @return          Latency in milliseconds, or -1 if there aren't enough samples yet
+     */
+    public long percentile(String endpoint, double p) {
+        Window window = windows.get(endpoint);
+        return window == null ? -1 : window.percentile(p);
+    }
+
+    /**
+     * Builds the endpoint key of a URL: the path, with the names following "repos" (owner and repository),
+     * "users" and "orgs" and any numeric segment replaced by '*'. The query string is dropped.
+     *
+     * @param url   Request URL
+     * @return      Endpoint key
+     */
+    public static String endpointOf(URL url) {
+        String[] segments = url.getPath().split("/");
+        StringBuilder key = new StringBuilder();
+        int wildcards = 0;
+
+        for (String segment : segments) {
+            if (segment.isEmpty())
+                continue;
+            if (key.length() > 0)
+                key.append('/');
+
+            if (wildcards > 0 || isNumeric(segment)) {
+                key.append('*');
+                wildcards = Math.max(0, wildcards - 1);
+                continue;
+            }
+
+            key.append(segment);
+            if (segment.equals("repos"))
+                wildcards = 2;
+            else if (segment.equals("users") || segment.equals("orgs"))
+                wildcards = 1;
+        }
+        return key.toString();
+    }
+
+    private static boolean isNumeric(String segment) {
+        for (int i = 0; i < segment.length(); i++)
+            if (!Character.isDigit(segment.charAt(i)))
+                return false;
+        return true;
+    }
+}
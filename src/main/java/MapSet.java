@@ -1,6 +1,6 @@
 import com.sun.istack.internal.NotNull;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Kevin Ng
@@ -16,17 +16,27 @@ import java.util.HashMap;
  * to see if the key already exists. If it does, we DO NOT override
  * the associated value -- Don't insert at all, since we want the map to
  * behave like a Set. Returns a boolean like Java Set's add() method.
+ *
+ * The backing map is a ConcurrentHashMap so put() is an atomic
+ * check-and-insert; only one of several threads putting the same key wins.
  */
 public class MapSet<K, V> {
 
-    private HashMap<K, V> map;
+    private ConcurrentHashMap<K, V> map;
 
     public MapSet() {
-        map = new HashMap<>();
+        map = new ConcurrentHashMap<>();
     }
 
     public MapSet(int initialCapacity) {
-        map = new HashMap<>(initialCapacity);
+        map = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    /**
+     * For subclasses that keep their entries elsewhere and override every method; no map is allocated.
+     */
+    protected MapSet(Void noMap) {
+        map = null;
     }
 
     public int size() {
@@ -38,7 +48,8 @@ public class MapSet<K, V> {
     }
 
     public V get(K key) {
-        return map.get(key);
+        // ConcurrentHashMap throws on null keys where HashMap simply returned null
+        return key == null ? null : map.get(key);
     }
 
     /**
@@ -52,23 +63,19 @@ public class MapSet<K, V> {
         if (key == null || value == null)
             return false;
 
-        if (map.containsKey(key))
-            return false;
-        else
-            return map.put(key, value) == null;
+        return map.putIfAbsent(key, value) == null;
 
         /*
-            MAP PUT
-            Returns: the previous value associated with key, or null if there was no mapping for key.
-                  (A null return can also indicate that the map previously associated null with key.)
+            MAP PUT IF ABSENT
+            Returns: the previous value associated with the specified key, or null if there was no mapping for the key.
 
-            Since the first scenario and the bracket scenario are enforced to never occur, a new insertion
-            will always return null, so the above will return true.
+            Null values are rejected above (and by ConcurrentHashMap), so a null return always means
+            this call inserted the mapping.
          */
     }
 
     public V remove(K key) {
-        return map.remove(key);
+        return key == null ? null : map.remove(key);
     }
 
     public void clear() {
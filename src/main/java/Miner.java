@@ -1,12 +1,19 @@
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
 import org.kohsuke.github.*;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.*;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Kevin Ng
@@ -22,9 +29,12 @@ import java.util.*;
  *      References: https://github.com/kohsuke/github-api/issues/65
  *
  * 1b.  If you encounter HttpExceptions returning response code -1 due to Read Timeouts, increase the timeout value
- *      that is being supplied to the CustomHttpConnector.
+ *      that is being supplied to the CustomHttpConnector. It is the ceiling; the timeout actually used for an endpoint
+ *      is derived from its recent latencies.
  *
- * 2.   <GHRepository>.getOwner() returns an incomplete or fully populated User based on whether or not <Github>.isOffline() returns true
+ * 2.   Repository and user details are read with the RecordFetcher rather than the library's GHRepository and GHUser,
+ *      which bind every field of the response. The owner and contributors of a repository are listed with their id and
+ *      login only, and are fetched in full (one api call each) only if they haven't been discovered yet.
  *
  * 3.   Server Errors (Http Status Code 500 & 502) were, for the most part, resolved by restarting the program in
  *      early iterations which did not have robust error handling. The Operation and OperationHelper classes are
@@ -45,24 +55,79 @@ public final class Miner {
 
     private static final Miner INSTANCE = new Miner();
     private static final int MAX_RETRIES = 3;
+    private static final int RATE_LIMIT_RESERVE = 10;  // rough number of api calls needed to process one repository
+    private static final int SAVE_INTERVAL = 100;      // repositories written between saves of the progress
 
     private String myToken;
-    private int since;
+    private String apiUrl;
+    private int since;      // saved; every repository up to here is written
+    private int listed;     // reached by the backfill listing; repositories between 'since' and here may be in progress
+    private int unsavedRepos = 0;       // committed by the backfill since 'since' was last saved
+    private int unsavedEventRepos = 0;  // written by the event stream since eventReposSet was last saved
+    private boolean eventsEnabled;
+    private boolean hedging;
+    private int maxConcurrency;
+
+    // Ids of the repositories claimed by the event stream above 'since'. Guarded by the Miner; saved to eventReposSet.
+    private final RoaringBitmap eventRepos = new RoaringBitmap();
+    private EventStreamMiner eventStream = null;
+    private Thread eventThread = null;
 
     private MapSet<Integer, String> discoveredUsers = new MapSet<>();
+    private Sink sink = null;
+    private UserResolver users = null;
+
+    // Rate limit state taken from the headers of every response; reading it costs no api calls.
+    private final RateLimitTracker rateLimits = new RateLimitTracker();
+    private CustomRateLimitHandler rateHandler = null;
+    private ConcurrencyLimiter limiter = null;
+    private RecordFetcher fetcher = null;
 
     private final File file1 = new File("data/Dataset1.txt");
     private final File file2 = new File("data/Dataset2.txt");
     private final File file3 = new File("data/Dataset3.txt");
     private final File log = new File("data/ErrorLog.txt");
     private final File dUserSet = new File("data/DiscoveredUsersSet.txt");
+    private final File eventFile1 = new File("data/EventDataset1.txt");
+    private final File eventFile2 = new File("data/EventDataset2.txt");
+    private final File eventReposSet = new File("data/EventReposSet.bin");
 
     private PropertiesConfiguration config = null;
 
+    /*
+        A repository's entries, fetched by a worker and waiting to be written in listing order.
+     */
+    private static final class MinedRepository {
+        final RepositoryRecord record;
+        final List<ContributorEdge> contributors;
+
+        MinedRepository(RepositoryRecord record, List<ContributorEdge> contributors) {
+            this.record = record;
+            this.contributors = contributors;
+        }
+    }
+
+    /*
+        A repository handed out by the backfill. The result is null for repositories that were skipped.
+     */
+    private static final class PendingRepository {
+        final int id;
+        final CompletableFuture<MinedRepository> result;
+
+        PendingRepository(int id, CompletableFuture<MinedRepository> result) {
+            this.id = id;
+            this.result = result;
+        }
+    }
+
     private Miner() {
         fileCheck();
         loadConfigurations();
+        createSink();
+        createUserSet();
         loadUserSet();
+        loadEventRepos();
+        users = new UserResolver(discoveredUsers, MAX_RETRIES, sink);
     }
 
     /**
@@ -92,6 +157,26 @@ public final class Miner {
         } catch (Error err) {
             System.out.println("Error caught in run()");
             err.printStackTrace();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stops the event stream, if it is still running, and closes the Sink so everything written is committed.
+     */
+    private void shutdown() {
+        try {
+            stopEventStream();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            sink.close();
+        } catch (IOException e) {
+            System.out.println("Error Closing output: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
@@ -106,194 +191,344 @@ public final class Miner {
         GitHub github = createGithub();
 
         System.out.println("****************************************************************************************");
+        // The only explicit /rate_limit call of the run; its response headers also seed the RateLimitTracker.
         System.out.println("Start:\t" + github.rateLimit());
         System.out.println("****************************************************************************************");
-        //int rateStart = github.rateLimit().remaining;   // DEBUG
+        //int rateStart = rateLimits.getRemaining();   // DEBUG
         //int skippedForks = 0;
 
+        if (eventsEnabled)
+            startEventStream(github);
+
         String sinceStr = Integer.toString(since);
         Iterator<GHRepository> repoIter = github.listAllPublicRepositories(sinceStr).iterator();
 
-        while ( repoIter.hasNext() ) {
-        //for (int i = 0; i < 200; i++) {    // DEBUG
-
-            GHRepository repo = repoIter.next();
-            since = repo.getId();
+        /*
+         * Repositories are fetched by a pool of workers as large as the concurrency ceiling (the ConcurrencyLimiter
+         * decides how many of their requests actually run at once), but written and committed to 'since' strictly in
+         * listing order, so the data sets stay in id order and a restart never skips a repository that was still in progress.
+         */
+        ExecutorService workerPool = Executors.newFixedThreadPool(maxConcurrency);
+        Deque<PendingRepository> pending = new ArrayDeque<>();
 
-            // Ignore repository if Fork since Forked repositories are (server-side) clones of existing repositories.
-            if (!repo.isFork()) {
-
-                try {
-                    /*
-                     * Access full repository information at the cost of an additional API call.
-                     * Contains detailed information including programming language, creation date, etc...
-                     */
-                    GHRepository repoDetails = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<GHRepository>() {
-                        @Override
-                        public GHRepository executeWithResult() throws IOException {
-                            return github.getRepository(repo.getFullName());
-                        }
-                        @Override
-                        public Status handleIOException(IOException e) {
-                            logError(since + ": " + e.getMessage());
-                            if (e.getMessage().contains("Repository access blocked")) {
-                                return Status.HANDLED_NO_RETRY;     // don't retry; repoDetails is null, all the code below is skipped
-                            } else return Status.RETRY;
+        try {
+            while ( repoIter.hasNext() ) {
+            //for (int i = 0; i < 200; i++) {    // DEBUG
+
+                GHRepository repo = repoIter.next();
+                int repoId = repo.getId();
+
+                // Ignore repository if the event stream has already mined it.
+                // Ignore repository if Fork since Forked repositories are (server-side) clones of existing repositories.
+                if (!claimForBackfill(repoId) || repo.isFork()) {
+                    pending.add(new PendingRepository(repoId, CompletableFuture.completedFuture(null)));
+                    //skippedForks++; // DEBUG
+                } else {
+                    String fullName = repo.getFullName();
+                    CompletableFuture<MinedRepository> result = new CompletableFuture<>();
+                    workerPool.execute(() -> {
+                        try {
+                            result.complete(fetchRepository(repoId, fullName));
+                        } catch (Throwable e) {
+                            result.completeExceptionally(e);
                         }
-                        @Override
-                        public Status handleIteratorError(Error err) {/* this won't throw an error. */ return null; }
                     });
+                    pending.add(new PendingRepository(repoId, result));
+                }
 
-                    if (repoDetails != null) {
-
-                        //--- Create the string entry for dataset1 ---//
-                        StringBuilder ds1 = new StringBuilder();
-                        ds1.append(since);
-                        ds1.append(":");
-
-                        /*
-                         * Append repository owner as first entry of the contributor's list since contributor list may be empty.
-                         * Reference:   https://help.github.com/articles/why-are-my-contributions-not-showing-up-on-my-profile/
-                         * todo Can potentionally skip this (-1 api calls) if you check repoDetails.getOwnerName() against the user set
-                         */
-                        GHUser owner = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<GHUser>() {
-                            @Override
-                            public GHUser executeWithResult() throws IOException {
-                                return repoDetails.getOwner();
-                            }
-                            @Override
-                            public Status handleIOException(IOException e) {
-                                logError(since + ": " + e.getMessage());
-                                return Status.RETRY;
-                            }
-                            @Override
-                            public Status handleIteratorError(Error err) { /* this won't throw an error. */ return null; }
-                        });
-
-                        int ownerId = -1;   // outside of IF scope since FOR (below) requires an initialized reference-able variable.
-                        if (owner != null) {
-                            ownerId = owner.getId();
-                            ds1.append(' ');
-                            ds1.append(ownerId);
-
-                            if (github.isOffline())
-                                // an incompletely populated User object (Reason: Same check is performed by <GHRepository>.getOwner()...)
-                                // "false" will treat owner as a Contributor User (will make another api call to get populated User object)
-                                processUser(github, owner, false);
-                            else
-                                // an owner User is already returned fully populated. "true" means processUser() won't make another api call.
-                                processUser(github, owner, true);
-                        }
+                commitFinished(pending, maxConcurrency * 2);
+            }
+            commitFinished(pending, 0);
 
-                        // Note: If the iterator fails, an ERROR will be thrown
-                        // Note: Contributor objects are not fully populated User objects
-                        Iterator<GHRepository.Contributor> contribIter = repoDetails.listContributors().iterator();
-
-                        Boolean moreContribs = true;
-                        while (moreContribs != null && moreContribs) {
-                            moreContribs = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<Boolean>() {
-                                @Override
-                                public Boolean executeWithResult() throws IOException {
-                                    return contribIter.hasNext();
-                                }
-                                @Override
-                                public Status handleIOException(IOException e) { /* this won't throw an exception. */ return null; }
-                                @Override
-                                public Status handleIteratorError(Error err) {
-                                    logError(since + ": " + err.getMessage());
-                                    if (err.getMessage().contains("The history or contributor list is too large to list contributors for this repository via the API"))
-                                        return Status.HANDLED_NO_RETRY;
-                                    else return Status.RETRY;
-                                }
-                            });
-
-                            if (moreContribs != null && moreContribs) {
-                                GHUser contribUser = contribIter.next();
-                                int contribId = contribUser.getId();
-
-                                // Include the contributor user if they aren't the repo owner (owner included above)
-                                if (contribId != ownerId) {
-                                    try {
-                                        // This requires its own try-catch block since we don't want a single processUser() failure
-                                        // to cause other all other subsequent users to not be processed. (ie. the exception would
-                                        // be thrown up to the next highest try-catch block which will skip the repo entirely)
-                                        processUser(github, contribUser, false);
-                                        ds1.append(' ');
-                                        ds1.append(contribId);
-                                    } catch (IOException | RetriesExceededException e) {
-                                        logError(since + ": " + e.getMessage() + ": Retrieving user " + contribId + " failed.");
-                                    }
-                                }
-                            }
-                        }
-                        ds1.append('\n');
-                        //--- end of making dataset1 string ---//
-
-                        //--- Create the string entry for dataset2 ---//
-                        StringBuilder ds2 = new StringBuilder();
-                        ds2.append(since);
-                        ds2.append(": \"");
-                        ds2.append(repoDetails.getFullName());
-                        ds2.append("\", \"");
-                        ds2.append(repoDetails.getCreatedAt().toString());
-                        ds2.append("\", \"");
-
-                        String details = repoDetails.getDescription();
-                        if (details != null)
-                            // Strip special characters from description...
-                            details = details.replaceAll("\\n|\\r|\\r\\n", "");
-
-                        ds2.append(details);
-                        ds2.append("\", \"");
-                        ds2.append(repoDetails.getLanguage());
-                        ds2.append("\", ");
-                        ds2.append(repoDetails.getStargazersCount());
-                        ds2.append(", ");
-                        ds2.append(repoDetails.getWatchers());
-                        ds2.append(", ");
-                        ds2.append(repoDetails.getForks());
-                        ds2.append('\n');
-                        //--- end of making dataset2 string ---//
-
-                        System.out.print("(" + github.rateLimit().remaining + ") " + ds1.toString());
-                        FileUtils.writeStringToFile(file1, ds1.toString(), "utf-8", true);
-                        FileUtils.writeStringToFile(file2, ds2.toString(), "utf-8", true);
-                    }
+        } finally {
+            workerPool.shutdownNow();
+        }
+
+        // The backfill has caught up; let the event stream finish its repository and write out what it has.
+        stopEventStream();
+        sink.flush();
+
+        //int rateEnd = rateLimits.getRemaining(); // DEBUG
+        System.out.println("****************************************************************************************");
+        System.out.println("End:\t" + rateLimits);
+        System.out.println("\t" + limiter);
+        System.out.println("Since:\t" + since);
+        //System.out.println("Calls:\t" + (rateStart - rateEnd));
+        //System.out.println("Forks:\t" + skippedForks);
+        System.out.println("****************************************************************************************");
+    }
+
+    /**
+     * Writes the finished repositories at the head of the queue, and saves 'since' every SAVE_INTERVAL repositories
+     * and once the queue is empty. Saving flushes the Sink, so in between the Sink batches its writes as it sees fit;
+     * a crash repeats at most SAVE_INTERVAL repositories. Waits for the head to finish while more than 'keep'
+     * repositories are queued.
+     *
+     * @param pending               Repositories in listing order
+     * @param keep                  Repositories allowed to stay in progress (0 waits for all of them)
+     * @throws InterruptedException Current thread is interrupted
+     */
+    private void commitFinished(Deque<PendingRepository> pending, int keep) throws InterruptedException {
+        while (!pending.isEmpty() && (pending.size() > keep || pending.peek().result.isDone())) {
+            PendingRepository head = pending.poll();
+
+            try {
+                MinedRepository mined = head.result.get();
+                if (mined != null)
+                    writeRepository(mined);
+                since = head.id;
+                if (++unsavedRepos >= SAVE_INTERVAL)
                     saveSince();
 
-                } catch (Throwable e) {
-                    since = repo.getId();   // update 'since' value even if repo retrieval fails, then skip it
+            } catch (ExecutionException | IOException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                since = head.id;   // update 'since' value even if repo retrieval fails, then skip it
 
-                    if (e instanceof RetriesExceededException) {
-                        if (e.getCause().getMessage().contains("Not Found") || e.getCause().getMessage().contains("Server Error")) {
-                            // 404, 500, 502 errors not resolvable with retrying are skipped after limit is reached...
-                            logError(since + ": " + e.getMessage() + ": Could not resolve problem. SKIPPED.");
+                if (cause instanceof RetriesExceededException) {
+                    if (cause.getCause().getMessage().contains("Not Found") || cause.getCause().getMessage().contains("Server Error")) {
+                        // 404, 500, 502 errors not resolvable with retrying are skipped after limit is reached...
+                        logError(since + ": " + cause.getMessage() + ": Could not resolve problem. SKIPPED.");
+                        if (++unsavedRepos >= SAVE_INTERVAL)
                             saveSince();
 
-                            // todo if RetriesExceeded caused by Http -1 from library, terminate program because most probably connection issue.
-                        }
-                    } else {
-                        logError(since + ": " + e.getMessage() + ": PROGRAM TERMINATED. Please Debug.");
-                        e.printStackTrace();
-                        System.exit(-5);
-                        // don't save the offending repository's id.
+                        // todo if RetriesExceeded caused by Http -1 from library, terminate program because most probably connection issue.
                     }
+                } else {
+                    logError(since + ": " + cause.getMessage() + ": PROGRAM TERMINATED. Please Debug.");
+                    cause.printStackTrace();
+                    System.exit(-5);
+                    // don't save the offending repository's id.
                 }
+            }
+        }
 
-            } else {
-                // If repo is a Fork, update 'since' value, but skip it...
-                saveSince();
-                //skippedForks++; // DEBUG
+        if (keep == 0 && unsavedRepos > 0)
+            saveSince();
+    }
+
+    /**
+     * Retrieves a repository's details and contributors, and saves its entries to EventDataset1 and EventDataset2.
+     * Used by the event stream; its repositories are kept apart from the backfill's, which are written in id order.
+     *
+     * @param repoId        Id of the repository
+     * @param fullName      Full name (owner/name) of the repository
+     * @throws Throwable    Will either be an IOException, HttpException or RetriesExceededException but due to
+     *                      how Operation is implemented, this must be declared as Throwable.
+     */
+    private void processEventRepository(int repoId, String fullName) throws Throwable {
+        MinedRepository mined = fetchRepository(repoId, fullName);
+        if (mined != null) {
+            System.out.print("(" + rateLimits.getRemaining() + ", x" + limiter.getLimit() + ") event "
+                    + TextFileSink.toDataset1(mined.record.id, mined.contributors));
+            sink.writeEventRepository(mined.record, mined.contributors);
+        }
+    }
+
+    /**
+     * Prints the repository's progress line and hands its entries to the Sink.
+     */
+    private void writeRepository(MinedRepository mined) throws IOException {
+        System.out.print("(" + rateLimits.getRemaining() + ", x" + limiter.getLimit() + ") "
+                + TextFileSink.toDataset1(mined.record.id, mined.contributors));
+        sink.writeRepository(mined.record, mined.contributors);
+    }
+
+    /**
+     * Retrieves a repository's details and contributors, and the contributors not discovered yet.
+     * Safe to call from several threads at once.
+     *
+     * @param repoId        Id of the repository
+     * @param fullName      Full name (owner/name) of the repository
+     * @return              The repository's entries, or null if it is a fork or its access is blocked
+     * @throws Throwable    Will either be an IOException, HttpException or RetriesExceededException but due to
+     *                      how Operation is implemented, this must be declared as Throwable.
+     */
+    private MinedRepository fetchRepository(int repoId, String fullName) throws Throwable {
+
+        // Wait out an exhausted rate limit up front rather than failing part way through the repository.
+        // Keep a reserve for every request the limiter lets run at once, each may be part way through a repository.
+        // The pause is left to the limiter, so every worker waits for it but only the first one announces it.
+        long pacing = rateLimits.pacingDelay(RATE_LIMIT_RESERVE * limiter.getLimit());
+        if (pacing > 0 && limiter.pause(pacing))
+            rateHandler.announce(pacing);
+
+        /*
+         * Access full repository information at the cost of an additional API call.
+         * Contains detailed information including programming language, creation date, etc...
+         */
+        RecordFetcher.Repository repoDetails = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<RecordFetcher.Repository>() {
+            @Override
+            public RecordFetcher.Repository executeWithResult() throws IOException {
+                return fetcher.fetchRepository(fullName);
+            }
+            @Override
+            public Status handleIOException(IOException e) {
+                logError(repoId + ": " + e.getMessage());
+                if (e.getMessage().contains("Repository access blocked")) {
+                    return Status.HANDLED_NO_RETRY;     // don't retry; repoDetails is null, all the code below is skipped
+                } else return Status.RETRY;
             }
+            @Override
+            public Status handleIteratorError(Error err) {/* this won't throw an error. */ return null; }
+        });
+
+        // Forks are already filtered out of the backfill listing, but the event stream only knows the name.
+        if (repoDetails == null || repoDetails.fork)
+            return null;
+
+        //--- Collect the contributor edges for dataset1 ---//
+        List<ContributorEdge> contributors = new ArrayList<>();
+
+        /*
+         * Append repository owner as first entry of the contributor's list since contributor list may be empty.
+         * Reference:   https://help.github.com/articles/why-are-my-contributions-not-showing-up-on-my-profile/
+         * The owner's id and login come with the repository, so the owner only costs an api call if they are new.
+         */
+        int ownerId = -1;   // outside of IF scope since FOR (below) requires an initialized reference-able variable.
+        if (repoDetails.owner != null) {
+            ownerId = repoDetails.owner.id;
+            contributors.add(new ContributorEdge(repoId, ownerId, contributors.size()));
+            processUser(repoDetails.owner, repoId);
         }
 
-        //int rateEnd = github.rateLimit().remaining; // DEBUG
-        System.out.println("****************************************************************************************");
-        System.out.println("End:\t" + github.rateLimit());
-        System.out.println("Since:\t" + since);
-        //System.out.println("Calls:\t" + (rateStart - rateEnd));
-        //System.out.println("Forks:\t" + skippedForks);
-        System.out.println("****************************************************************************************");
+        // Note: Contributors are listed with their id and login only
+        URL page = fetcher.contributorsUrl(fullName);
+
+        while (page != null) {
+            URL current = page;
+            RecordFetcher.ContributorPage contribPage = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<RecordFetcher.ContributorPage>() {
+                @Override
+                public RecordFetcher.ContributorPage executeWithResult() throws IOException {
+                    return fetcher.fetchContributors(current);
+                }
+                @Override
+                public Status handleIOException(IOException e) {
+                    logError(repoId + ": " + e.getMessage());
+                    if (e.getMessage().contains("The history or contributor list is too large to list contributors for this repository via the API"))
+                        return Status.HANDLED_NO_RETRY;
+                    else return Status.RETRY;
+                }
+                @Override
+                public Status handleIteratorError(Error err) {/* this won't throw an error. */ return null; }
+            });
+
+            if (contribPage == null)
+                break;
+
+            for (RecordFetcher.UserRef contribUser : contribPage.contributors) {
+                int contribId = contribUser.id;
+
+                // Include the contributor user if they aren't the repo owner (owner included above)
+                if (contribId != ownerId) {
+                    try {
+                        // This requires its own try-catch block since we don't want a single processUser() failure
+                        // to cause other all other subsequent users to not be processed. (ie. the exception would
+                        // be thrown up to the next highest try-catch block which will skip the repo entirely)
+                        processUser(contribUser, repoId);
+                        contributors.add(new ContributorEdge(repoId, contribId, contributors.size()));
+                    } catch (IOException | RetriesExceededException e) {
+                        logError(repoId + ": " + e.getMessage() + ": Retrieving user " + contribId + " failed.");
+                    }
+                }
+            }
+            page = contribPage.next;
+        }
+        //--- end of collecting dataset1 edges ---//
+
+        RepositoryRecord record = repoDetails.record;
+        if (record.id != repoId)
+            // entries are keyed by the id the repository was listed under, as they always have been
+            record = new RepositoryRecord(repoId, record.fullName, record.createdAt, record.description, record.language,
+                    record.stargazers, record.watchers, record.forks);
+
+        return new MinedRepository(record, contributors);
+    }
+
+    /**
+     * Starts tailing the public events feed on its own thread. Repositories found there are fetched like the
+     * backfill's and written by processEventRepository(); a failed repository is logged and given back to the
+     * backfill, which mines it when it gets there. The set of claimed repositories is saved every SAVE_INTERVAL
+     * repositories and when the stream stops, so a restart doesn't mine them again.
+     *
+     * @param github        The current Github object instance
+     * @throws IOException  If the events URL can't be built
+     */
+    private void startEventStream(GitHub github) throws IOException {
+        eventStream = new EventStreamMiner(apiUrl, myToken, github.getConnector(), new EventStreamMiner.Listener() {
+            @Override
+            public void onRepository(int id, String fullName) {
+                if (!claimForEvents(id))
+                    return;
+
+                try {
+                    processEventRepository(id, fullName);
+                } catch (Throwable e) {
+                    unclaimForEvents(id);
+                    logError(id + ": " + e.getMessage() + ": Event stream repository SKIPPED, left to the backfill.");
+                    return;
+                }
+                if (++unsavedEventRepos >= SAVE_INTERVAL)
+                    saveEventRepos();
+            }
+            @Override
+            public void onError(String message) {
+                logError(message);
+            }
+        });
+
+        eventThread = new Thread(eventStream, "event-stream");
+        eventThread.setDaemon(true);    // never keeps the program alive on its own
+        eventThread.start();
+        System.out.println("Event stream started...");
+    }
+
+    /**
+     * Stops the event stream, if it is running, and waits for it to finish the repository it is on.
+     *
+     * @throws InterruptedException Current thread is interrupted
+     */
+    private void stopEventStream() throws InterruptedException {
+        if (eventStream == null)
+            return;
+
+        eventStream.stop();
+        eventThread.join();
+        eventStream = null;
+        if (unsavedEventRepos > 0)
+            saveEventRepos();
+        System.out.println("Event stream stopped...");
+    }
+
+    /**
+     * Moves the backfill's 'listed' value to the given repository and checks that the event stream hasn't mined it already.
+     * Both claim methods synchronize on the Miner so a repository is never taken by both sides.
+     *
+     * @param id    Repository id reached by the backfill
+     * @return      True, if the backfill should process the repository
+     */
+    private synchronized boolean claimForBackfill(int id) {
+        listed = id;
+        return !eventRepos.contains(id);
+    }
+
+    /**
+     * Claims a repository found by the event stream. Repositories at or below 'listed' were already handled by
+     * the backfill, and a repository seen in several events, or in an earlier run, is only processed once.
+     *
+     * @param id    Repository id
+     * @return      True, if the event stream should process the repository
+     */
+    private synchronized boolean claimForEvents(int id) {
+        return id > listed && eventRepos.checkedAdd(id);
+    }
+
+    /**
+     * Gives back a repository the event stream failed to process, so the backfill doesn't skip it.
+     *
+     * @param id    Repository id
+     */
+    private synchronized void unclaimForEvents(int id) {
+        eventRepos.remove(id);
     }
 
     /**
@@ -304,88 +539,54 @@ public final class Miner {
      */
     private GitHub createGithub() throws IOException {
 
-        HttpConnector conn = new CustomHttpConnector(90000);
-        CustomRateLimitHandler rate = new CustomRateLimitHandler();
+        // Starts at one request in flight and finds its own level, up to the configured ceiling.
+        limiter = new ConcurrencyLimiter(1, maxConcurrency);
+        HttpConnector conn = new CustomHttpConnector(90000, rateLimits, limiter, hedging);
+        rateHandler = new CustomRateLimitHandler(rateLimits);
+        AbuseLimitHandler abuseHandler = new CustomAbuseLimitHandler(limiter);
+
+        // Repository and user details are read by the RecordFetcher; the library is left with the listing.
+        fetcher = new RecordFetcher(apiUrl, myToken, conn, rateHandler, abuseHandler);
 
         return new GitHubBuilder()
+                .withEndpoint(apiUrl)
                 .withConnector(conn)
                 .withOAuthToken(myToken)
-                .withAbuseLimitHandler(AbuseLimitHandler.WAIT)
-                .withRateLimitHandler(rate)
+                .withAbuseLimitHandler(abuseHandler)
+                .withRateLimitHandler(rateHandler)
                 .build();
     }
 
     /**
-     * Helper method checks to see if the referenced User object exists in the set.
-     * Then gets detailed user information, constructs, and saves the line entry
-     * for Dataset3. A newly discovered User is saved to the DiscoveredUsersSet.
+     * Helper method hands the referenced User to the UserResolver, which checks to see if they exist in the set.
+     * Only a newly discovered User is retrieved (once, even if several threads ask for them at the same time)
+     * and saved to Dataset3 and the DiscoveredUsersSet.
      *
-     * @param github        The current Github object instance
-     * @param ref           Reference to the GHUser object to be processed
-     * @param isOwner       Whether or not the GHUser reference is an owner of current repository
+     * @param ref           Id and login of the user to be processed
+     * @param repoId        Id of the repository being processed, for the error log
      * @throws Throwable    Will either be an IOException or HttpException but due to how Operation is implemented,
      *                      this must be declared as Throwable.
      */
-    private void processUser(GitHub github, GHUser ref, boolean isOwner) throws Throwable {
-        // Should only retrieve a User for processing if they haven't been seen before (ie. not in the discovered users set)
-        if ( discoveredUsers.put(ref.getId(), ref.getLogin()) ) {
-            GHUser user;
-
-            if (isOwner)
-                user = ref;
-            else {
-                String login = ref.getLogin();
-
-                user = OperationHelper.doWithRetry(MAX_RETRIES, new Operation<GHUser>() {
-                    @Override
-                    public GHUser executeWithResult() throws IOException {
-                        return github.getUser(login);
-                    }
-                    @Override
-                    public Status handleIOException(IOException e) {
-                        logError(since + ": " + e.getMessage());
-                        return Status.RETRY;
-                    }
-                    @Override
-                    public Status handleIteratorError(Error err) {/* this won't throw an error. */ return null; }
-                });
+    private void processUser(RecordFetcher.UserRef ref, int repoId) throws Throwable {
+        users.resolve(ref.id, ref.login, new Operation<UserRecord>() {
+            @Override
+            public UserRecord executeWithResult() throws IOException {
+                return fetcher.fetchUser(ref.login);
             }
-
-            // User should be null if above fails, so skip if user couldn't be retrieved...
-            if (user != null) {
-
-                // Save newly discovered user to file. Note: Set file always needs to be loaded on program start...
-                String newUser = user.getId() + "," + user.getLogin() + '\n';
-                FileUtils.writeStringToFile(dUserSet, newUser, "utf-8", true);
-
-                //--- Create and save the string entry for dataset3... ---//
-                StringBuilder ds3 = new StringBuilder();
-                ds3.append(user.getId());
-                ds3.append(": \"");
-                ds3.append(user.getLogin());
-                ds3.append("\", \"");
-
-                // Need to strip special characters from Location since users can apparently enter a custom string for it...
-                // See offending example: https://api.github.com/users/tomvangoethem
-                String location = user.getLocation();
-                if (location != null)
-                    location = location.replaceAll("\\n|\\r|\\r\\n", "");
-
-                ds3.append(location);
-                ds3.append("\", ");
-                ds3.append(user.getFollowersCount());
-                ds3.append(", ");
-                ds3.append(user.getFollowingCount());
-                ds3.append('\n');
-                FileUtils.writeStringToFile(file3, ds3.toString(), "utf-8", true);
+            @Override
+            public Status handleIOException(IOException e) {
+                logError(repoId + ": " + e.getMessage());
+                return Status.RETRY;
             }
-        }
-        // Else -> no User data processed; the data already exists
+            @Override
+            public Status handleIteratorError(Error err) {/* this won't throw an error. */ return null; }
+        });
+        // Returns False -> no User data processed; the data already exists
     }
 
     /**
      * Helper method creates a new PropertiesConfiguration from the specified properties file.
-     * Loads the 'since' value and the oauth token for this application.
+     * Loads the 'since' value, the oauth token, the API endpoint, whether to tail the event stream and the concurrency ceiling.
      */
     private void loadConfigurations() {
         try {
@@ -394,6 +595,7 @@ public final class Miner {
 
             // set 'since' value
             since = config.getInt("since");
+            listed = since;
 
             // set authentication token
             myToken = config.getString("token");
@@ -401,6 +603,17 @@ public final class Miner {
             if (myToken == null || myToken.equals(""))
                 throw new ConfigurationException("No authentication token found.");
 
+            // set API endpoint (can point to a local stand-in server) and event stream mode
+            apiUrl = config.getString("api.url", "https://api.github.com");
+            eventsEnabled = config.getBoolean("events", false);
+
+            // send a duplicate of GETs stuck past their endpoint's p99 latency
+            hedging = config.getBoolean("hedge", false);
+
+            // ceiling on requests in flight and repositories fetched at the same time; the ConcurrencyLimiter finds
+            // the level the API tolerates below it
+            maxConcurrency = Math.max(1, config.getInt("max.concurrency", 32));
+
         } catch (ConfigurationException e) {
             System.out.println("Error Loading config.properties: " + e.getMessage());
             e.printStackTrace();
@@ -410,8 +623,19 @@ public final class Miner {
 
     /**
      * Helper method saves the 'since' value to the program's configuration file.
+     * The Sink is flushed first so the data sets never fall behind the saved 'since' value.
      */
     private void saveSince() {
+        unsavedRepos = 0;
+
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            System.out.println("Error Flushing output: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+
         try {
             if (config != null) {
                 config.setProperty("since", since);
@@ -426,30 +650,104 @@ public final class Miner {
     }
 
     /**
-     * Helper method loads the set of discovered users from file into a Map.
+     * Helper method loads the ids of the repositories the event stream claimed in earlier runs.
      */
-    private void loadUserSet() {
-        int count = 0;
-        LineIterator iter = null;
+    private void loadEventRepos() {
+        if (!eventReposSet.exists())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(eventReposSet)))) {
+            eventRepos.deserialize(in);
+        } catch (IOException e) {
+            System.out.println("Error Loading " + eventReposSet.getName());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        System.out.println("Loaded " + eventRepos.getCardinality() + " Event Stream Repositories...");
+    }
+
+    /**
+     * Helper method saves the ids of the repositories claimed by the event stream, after flushing the Sink so
+     * the saved ids are never ahead of the data sets. Ids at or below 'since' are dropped first: the backfill
+     * has passed them and the event stream no longer claims them, which keeps the set small.
+     * Written to a temporary file and moved over the old one, so a crash never leaves half a set behind.
+     */
+    private void saveEventRepos() {
+        RoaringBitmap snapshot;
+        unsavedEventRepos = 0;
 
         try {
-            iter = FileUtils.lineIterator(dUserSet, "utf-8");
+            sink.flush();
 
-            while (iter.hasNext()) {
-                String line = iter.nextLine();
-                String[] lineKV = line.split(",");
+            synchronized (this) {
+                eventRepos.remove(0L, since + 1L);
+                snapshot = eventRepos.clone();
+            }
+            snapshot.runOptimize();
 
-                if (!discoveredUsers.put(Integer.parseInt(lineKV[0]), lineKV[1]))
-                    throw new IOException("MapSet.put returned False on a new insertion set..."); // cautionary code. This shouldn't ever trigger.
-                count ++;
+            File temp = new File(eventReposSet.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                snapshot.serialize(out);
             }
+            Files.move(temp.toPath(), eventReposSet.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            System.out.println("Error Saving " + eventReposSet.getName() + ": " + e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Helper method creates the Sink selected in the configuration: the text data sets (default)
+     * or an embedded database ("sink=jdbc", see "jdbc.url").
+     */
+    private void createSink() {
+        String type = config.getString("sink", "text");
+
+        try {
+            if (type.equals("jdbc"))
+                sink = new JdbcSink(config.getString("jdbc.url", "jdbc:h2:./data/GithubData"));
+            else
+                sink = new TextFileSink(file1, file2, file3, dUserSet, eventFile1, eventFile2);
+
+        } catch (IOException e) {
+            System.out.println("Error Creating " + type + " sink: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Helper method creates the set of discovered users selected in the configuration: a plain in-memory MapSet
+     * (default), or a TieredMapSet that keeps most users on disk ("users.store=tiered", see "users.expected").
+     */
+    private void createUserSet() {
+        if (!config.getString("users.store", "memory").equals("tiered"))
+            return;
+
+        try {
+            discoveredUsers = new TieredMapSet(new File("data/UserStore"), config.getLong("users.expected", 100000000L));
+        } catch (IOException e) {
+            System.out.println("Error Creating user store: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Helper method loads the set of discovered users from the Sink into a Map.
+     */
+    private void loadUserSet() {
+        int count = 0;
+
+        try {
+            count = sink.loadDiscoveredUsers(discoveredUsers);
         } catch (IOException e) {
             System.out.println("Error Loading DiscoveredUsersSet");
             e.printStackTrace();
             System.exit(-1);
         } finally {
-            if (iter != null)
-                iter.close();
             System.out.println("Loaded " + count + " Users into Discovered Set...");
         }
     }
@@ -0,0 +1,437 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A HttpURLConnection wrapper handed out by the CustomHttpConnector. Every call is forwarded
+ * to the real connection. The first time the response is touched (response code, headers or
+ * body), the request is sent and timed for the LatencyTracker, and the response headers are
+ * reported to the RateLimitTracker. Sending waits for a ConcurrencyLimiter slot, which is given
+ * back with the outcome once the response headers are in.
+ *
+ * If the connector asks for it, a GET that hasn't been answered within the endpoint's p99 latency
+ * is sent a second time on a new connection, if the ConcurrencyLimiter has a slot free for it.
+ * Whichever connection answers first becomes the delegate and the other one is disconnected.
+ * This is only safe because GETs are idempotent.
+ *
+ * Note: The field holding the real connection must be called "delegate". For verbs that
+ *       HttpURLConnection doesn't support (ie. PATCH), the library sets the method reflectively
+ *       and then looks for a "delegate" field to do the same on the wrapped connection.
+ *       Source: https://github.com/kohsuke/github-api/blob/master/src/main/java/org/kohsuke/github/Requester.java
+ */
+public class ObservedHttpURLConnection extends HttpURLConnection {
+
+    // Sends the requests and waits for hedged ones; daemon threads so they never keep the program alive.
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "http-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /*
+        A request header as it was set, replayed on a hedged connection.
+        HttpURLConnection won't hand some of them (ie. Authorization) back once set.
+     */
+    private static final class RequestProperty {
+        final String key;
+        final String value;
+        final boolean add;  // addRequestProperty() rather than setRequestProperty()
+
+        RequestProperty(String key, String value, boolean add) {
+            this.key = key;
+            this.value = value;
+            this.add = add;
+        }
+    }
+
+    private HttpURLConnection delegate;     // replaced by the hedged connection if that one answers first
+    private final CustomHttpConnector connector;
+    private final List<RequestProperty> requestProperties = new ArrayList<>();
+
+    private boolean observed = false;
+    private long ticket = ConcurrencyLimiter.NO_SLOT;
+
+    public ObservedHttpURLConnection(HttpURLConnection delegate, CustomHttpConnector connector) {
+        super(delegate.getURL());
+        this.delegate = delegate;
+        this.connector = connector;
+    }
+
+    /**
+     * Sends the request and reports on the response, once. getHeaderField() sends the request if it hasn't
+     * been sent yet and returns null instead of throwing when it fails; the failure is remembered by the
+     * connection and thrown again by the response calls that follow.
+     */
+    private void observe() {
+        if (observed)
+            return;
+        observed = true;
+
+        String endpoint = LatencyTracker.endpointOf(url);
+        ConcurrencyLimiter limiter = connector.getLimiter();
+
+        try {
+            ticket = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            delegate.getHeaderField(0);     // send without a slot; the caller sees the interrupt afterwards
+            return;
+        }
+        long start = System.nanoTime();
+        boolean overloaded = false;
+        boolean failed = true;
+        double latencyRatio = -1;
+
+        try {
+            long hedgeAfter = "GET".equals(delegate.getRequestMethod()) && !delegate.getDoOutput() ? connector.hedgeDelay(endpoint) : -1;
+            if (hedgeAfter > 0)
+                delegate = hedged(hedgeAfter);
+            else
+                delegate.getHeaderField(0);
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long typical = connector.getLatencies().percentile(endpoint, 0.5);
+            if (typical > 0)
+                latencyRatio = (double) elapsed / Math.max(1, typical);
+
+            // A failure is recorded too (at about the timeout), so an endpoint that slows down raises its own timeout.
+            connector.getLatencies().record(endpoint, elapsed);
+            connector.getRateLimits().update(delegate);
+
+            int code = responseCode(delegate);
+            // The body isn't read here; a 403 that only says so in its body is reported by the AbuseLimitHandler.
+            overloaded = isSecondaryRateLimit(delegate, code, null);
+            failed = code < 0 || code >= 500;
+
+        } finally {
+            limiter.release(ticket, overloaded, failed, latencyRatio);
+        }
+    }
+
+    /**
+     * @return  The response code of a connection that has been sent, or -1 if no response came back
+     */
+    private static int responseCode(HttpURLConnection uc) {
+        if (uc.getHeaderField(0) == null)
+            return -1;      // the send failed (timeout, refused connection...)
+        try {
+            return uc.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Tells a secondary rate limit apart from the primary one and from other errors. The one classification
+     * used by both the observer and the RecordFetcher:
+     *      - a used up primary rate limit (403 or 429 with "X-RateLimit-Remaining: 0") is not one
+     *      - a Retry-After header (secondary rate limits, and some 503s) or a 429 is one
+     *      - a 403 is one only if its body names a secondary (abuse) rate limit; any other 403
+     *        (ie. "Repository access blocked") is an error of the request itself
+     *
+     * @param uc    Connection that has answered
+     * @param code  Its response code
+     * @param body  Its error body, or null if it hasn't been read
+     */
+    static boolean isSecondaryRateLimit(HttpURLConnection uc, int code, String body) {
+        if ("0".equals(uc.getHeaderField("X-RateLimit-Remaining")))
+            return false;
+        if (uc.getHeaderField("Retry-After") != null || code == 429)
+            return true;
+        if (code != HttpURLConnection.HTTP_FORBIDDEN || body == null)
+            return false;
+
+        String message = body.toLowerCase();
+        return message.contains("secondary rate limit") || message.contains("abuse");
+    }
+
+    /**
+     * @return  The ConcurrencyLimiter ticket the request was sent with, or NO_SLOT if it hasn't been sent
+     *          or was sent without one
+     */
+    long getTicket() {
+        return ticket;
+    }
+
+    /**
+     * Sends the request, and a duplicate on a new connection if no answer arrives within 'hedgeAfter'.
+     * The duplicate takes a ConcurrencyLimiter slot of its own, so it is only sent if a slot is free right
+     * away; after a cut there usually isn't one. The outcome of the race is reported by observe().
+     *
+     * @param hedgeAfter    Milliseconds to wait for the original connection
+     * @return              The connection that answered first (successfully, if either did)
+     */
+    private HttpURLConnection hedged(long hedgeAfter) {
+        HttpURLConnection primary = delegate;
+        ConcurrencyLimiter limiter = connector.getLimiter();
+        CompletionService<HttpURLConnection> race = new ExecutorCompletionService<>(SENDERS);
+        race.submit(() -> send(primary));
+
+        try {
+            if (race.poll(hedgeAfter, TimeUnit.MILLISECONDS) != null)
+                return primary;
+
+            long ticket = limiter.tryAcquire();
+            if (ticket == ConcurrencyLimiter.NO_SLOT)
+                return race.take().get();
+
+            HttpURLConnection hedge;
+            try {
+                hedge = copyRequest();
+            } catch (IOException e) {
+                limiter.release(ticket);
+                throw e;
+            }
+            race.submit(() -> {
+                try {
+                    return send(hedge);
+                } finally {
+                    limiter.release(ticket);
+                }
+            });
+
+            HttpURLConnection winner = race.take().get();
+            if (winner.getHeaderField(0) == null)
+                winner = race.take().get();     // the first one failed; the other one may still succeed
+
+            HttpURLConnection loser = winner == primary ? hedge : primary;
+            SENDERS.execute(loser::disconnect);
+            return winner;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException e) {
+            // couldn't hedge; fall through and wait on the original request
+        }
+        primary.getHeaderField(0);
+        return primary;
+    }
+
+    private static HttpURLConnection send(HttpURLConnection uc) {
+        uc.getHeaderField(0);
+        return uc;
+    }
+
+    /**
+     * Opens a new connection carrying the same GET request.
+     */
+    private HttpURLConnection copyRequest() throws IOException {
+        HttpURLConnection copy = connector.open(url);
+        copy.setRequestMethod("GET");
+        copy.setInstanceFollowRedirects(delegate.getInstanceFollowRedirects());
+        copy.setUseCaches(delegate.getUseCaches());
+
+        for (RequestProperty property : requestProperties) {
+            if (property.add)
+                copy.addRequestProperty(property.key, property.value);
+            else
+                copy.setRequestProperty(property.key, property.value);
+        }
+        return copy;
+    }
+
+    /*
+        Response side -- these are the calls that complete the request.
+     */
+    @Override
+    public int getResponseCode() throws IOException {
+        observe();
+        return delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        observe();
+        return delegate.getResponseMessage();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        observe();
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        observe();
+        return delegate.getErrorStream();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        observe();
+        return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        observe();
+        return delegate.getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        observe();
+        return delegate.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        observe();
+        return delegate.getHeaderFields();
+    }
+
+    /*
+        Request side -- plain forwarding.
+     */
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return delegate.usingProxy();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+        super.setRequestMethod(method);
+        delegate.setRequestMethod(method);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return delegate.getRequestMethod();
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        delegate.setRequestProperty(key, value);
+        requestProperties.add(new RequestProperty(key, value, false));
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        delegate.addRequestProperty(key, value);
+        requestProperties.add(new RequestProperty(key, value, true));
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return delegate.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return delegate.getRequestProperties();
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+        delegate.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return delegate.getConnectTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        delegate.setReadTimeout(timeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return delegate.getReadTimeout();
+    }
+
+    @Override
+    public void setDoOutput(boolean doOutput) {
+        delegate.setDoOutput(doOutput);
+    }
+
+    @Override
+    public boolean getDoOutput() {
+        return delegate.getDoOutput();
+    }
+
+    @Override
+    public void setDoInput(boolean doInput) {
+        delegate.setDoInput(doInput);
+    }
+
+    @Override
+    public boolean getDoInput() {
+        return delegate.getDoInput();
+    }
+
+    @Override
+    public void setUseCaches(boolean useCaches) {
+        delegate.setUseCaches(useCaches);
+    }
+
+    @Override
+    public boolean getUseCaches() {
+        return delegate.getUseCaches();
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+        delegate.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public boolean getInstanceFollowRedirects() {
+        return delegate.getInstanceFollowRedirects();
+    }
+
+    @Override
+    public void setChunkedStreamingMode(int chunklen) {
+        delegate.setChunkedStreamingMode(chunklen);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public URL getURL() {
+        return delegate.getURL();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,146 @@
+import java.net.HttpURLConnection;
+import java.util.Date;
+
+/**
+ * Keeps track of the API's rate limit state using the "X-RateLimit-*" headers
+ * of every response that passes through the CustomHttpConnector.
+ *
+ * Problem:
+ *     <Github>.rateLimit() makes a request to the /rate_limit endpoint every time
+ * it is called. Calling it once per repository for the console output added an
+ * extra network round trip to every repository processed.
+ *
+ * Solution:
+ *     Every API response already carries the current limit, remaining calls and
+ * reset time in its headers. We record them as responses come in so the state
+ * can be read at any time without doing any I/O.
+ */
+public class RateLimitTracker {
+
+    /*
+        An immutable view of the three headers. Replaced as a whole so readers
+        never see a remaining count from one response mixed with the reset time of another.
+     */
+    private static final class Snapshot {
+        final int limit;
+        final int remaining;
+        final long reset;   // epoch seconds
+
+        Snapshot(int limit, int remaining, long reset) {
+            this.limit = limit;
+            this.remaining = remaining;
+            this.reset = reset;
+        }
+    }
+
+    private volatile Snapshot snapshot = null;
+
+    /**
+     * Records the rate limit headers of a completed response. Responses without
+     * the headers (ie. failed connections) are ignored.
+     *
+     * @param uc    Connection whose response has been received
+     */
+    public void update(HttpURLConnection uc) {
+        String limit = uc.getHeaderField("X-RateLimit-Limit");
+        String remaining = uc.getHeaderField("X-RateLimit-Remaining");
+        String reset = uc.getHeaderField("X-RateLimit-Reset");
+
+        if (limit == null || remaining == null || reset == null)
+            return;
+
+        try {
+            update(Integer.parseInt(limit), Integer.parseInt(remaining), Long.parseLong(reset));
+        } catch (NumberFormatException e) {
+            // malformed header, keep the previous state...
+        }
+    }
+
+    /**
+     * Records a new rate limit state.
+     *
+     * @param limit         Maximum number of calls in the current window
+     * @param remaining     Calls left in the current window
+     * @param reset         Time the current window resets, in epoch seconds
+     */
+    public synchronized void update(int limit, int remaining, long reset) {
+        Snapshot current = snapshot;
+
+        if (current != null) {
+            // Responses can complete out of order. An older window is stale, and within the same
+            // window the remaining count can only ever go down.
+            if (reset < current.reset)
+                return;
+            if (reset == current.reset && remaining > current.remaining)
+                return;
+        }
+        snapshot = new Snapshot(limit, remaining, reset);
+    }
+
+    /**
+     * @return  True, if at least one response with rate limit headers has been seen
+     */
+    public boolean isKnown() {
+        return snapshot != null;
+    }
+
+    /**
+     * @return  Calls remaining in the current window, or -1 if not known yet
+     */
+    public int getRemaining() {
+        Snapshot s = snapshot;
+        return s == null ? -1 : s.remaining;
+    }
+
+    /**
+     * @return  Maximum number of calls in the current window, or -1 if not known yet
+     */
+    public int getLimit() {
+        Snapshot s = snapshot;
+        return s == null ? -1 : s.limit;
+    }
+
+    /**
+     * @return  Time the current window resets, or null if not known yet
+     */
+    public Date getResetDate() {
+        Snapshot s = snapshot;
+        return s == null ? null : new Date(s.reset * 1000);
+    }
+
+    /**
+     * @return  Milliseconds until the current window resets. 0 if the reset has passed or is not known.
+     */
+    public long millisUntilReset() {
+        Snapshot s = snapshot;
+        if (s == null)
+            return 0;
+
+        return Math.max(0, s.reset * 1000 - System.currentTimeMillis());
+    }
+
+    /**
+     * Decides how long the caller should hold off before starting a unit of work that needs
+     * roughly 'reserve' calls. Waiting up front is cheaper than having a request rejected halfway
+     * through a repository and relying on the RateLimitHandler to recover.
+     *
+     * @param reserve   Number of calls the caller is about to make
+     * @return          Milliseconds to wait, 0 if the work can start right away
+     */
+    public long pacingDelay(int reserve) {
+        Snapshot s = snapshot;
+        if (s == null || s.remaining >= reserve)
+            return 0;
+
+        return millisUntilReset();
+    }
+
+    @Override
+    public String toString() {
+        Snapshot s = snapshot;
+        if (s == null)
+            return "RateLimit{unknown}";
+
+        return "RateLimit{remaining=" + s.remaining + ", limit=" + s.limit + ", resetDate=" + new Date(s.reset * 1000) + "}";
+    }
+}
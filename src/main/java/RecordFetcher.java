@@ -0,0 +1,318 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.AbuseLimitHandler;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.RateLimitHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Fetches repositories, users and contributor lists straight into the records the Sink takes.
+ *
+ * Problem:
+ *     The library data-binds every response into a GHRepository or GHUser with dozens of fields and nested
+ * objects (the owner, the parent repository, the permissions...), and the Miner reads about 8 of them. With
+ * several workers fetching at once, most of what is allocated per repository is thrown away unread.
+ *
+ * Solution:
+ *     Read the response with Jackson's streaming JsonParser, keep the few fields the data sets need and skip
+ * the rest token by token. Skipped string values are never decoded into Strings.
+ * Reference: https://github.com/FasterXML/jackson-core
+ *
+ * Requests go through the same HttpConnector, RateLimitHandler and AbuseLimitHandler as the library's, and
+ * failures are thrown as HttpExceptions carrying Github's error body, just like the library does, so the
+ * Miner's checks on the error message ("Not Found", "Repository access blocked", ...) still apply.
+ * Connections are not disconnected; closing the fully read stream lets the socket be kept alive and reused.
+ * Safe to share between threads.
+ */
+public class RecordFetcher {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * A user as listed in another response (owner, contributor): just the id and login.
+     */
+    public static final class UserRef {
+        public final int id;
+        public final String login;
+
+        public UserRef(int id, String login) {
+            this.id = id;
+            this.login = login;
+        }
+    }
+
+    /**
+     * A repository's Dataset2 entry, plus what the Miner needs to decide what to do with it.
+     */
+    public static final class Repository {
+        public final RepositoryRecord record;
+        public final boolean fork;
+        public final UserRef owner;     // may be null
+
+        public Repository(RepositoryRecord record, boolean fork, UserRef owner) {
+            this.record = record;
+            this.fork = fork;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * One page of a repository's contributors.
+     */
+    public static final class ContributorPage {
+        public final List<UserRef> contributors;
+        public final URL next;          // null on the last page
+
+        public ContributorPage(List<UserRef> contributors, URL next) {
+            this.contributors = contributors;
+            this.next = next;
+        }
+    }
+
+    private final String apiUrl;
+    private final String token;
+    private final HttpConnector connector;
+    private final RateLimitHandler rateLimitHandler;
+    private final AbuseLimitHandler abuseLimitHandler;
+
+    public RecordFetcher(String apiUrl, String token, HttpConnector connector,
+                         RateLimitHandler rateLimitHandler, AbuseLimitHandler abuseLimitHandler) {
+        this.apiUrl = apiUrl;
+        this.token = token;
+        this.connector = connector;
+        this.rateLimitHandler = rateLimitHandler;
+        this.abuseLimitHandler = abuseLimitHandler;
+    }
+
+    /**
+     * GET /repos/{owner}/{repo}
+     *
+     * @param fullName      Full name (owner/name) of the repository
+     * @return              The repository
+     * @throws IOException  If the request fails; an HttpException for an error response
+     */
+    public Repository fetchRepository(String fullName) throws IOException {
+        HttpURLConnection uc = get(new URL(apiUrl + "/repos/" + fullName));
+
+        int id = 0, stargazers = 0, watchers = 0, forks = 0;
+        String name = null, description = null, language = null;
+        Date createdAt = null;
+        boolean fork = false;
+        UserRef owner = null;
+
+        try (InputStream in = uc.getInputStream(); JsonParser p = JSON.createParser(in)) {
+            expect(p, JsonToken.START_OBJECT);
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+
+                switch (field) {
+                    case "id":                  id = p.getIntValue(); break;
+                    case "full_name":           name = textOrNull(p); break;
+                    case "created_at":          createdAt = parseDate(textOrNull(p)); break;
+                    case "description":         description = textOrNull(p); break;
+                    case "language":            language = textOrNull(p); break;
+                    case "stargazers_count":    stargazers = p.getIntValue(); break;
+                    case "watchers_count":      watchers = p.getIntValue(); break;
+                    case "forks_count":         forks = p.getIntValue(); break;
+                    case "fork":                fork = p.getCurrentToken() == JsonToken.VALUE_TRUE; break;
+                    case "owner":               owner = readUserRef(p); break;
+                    default:                    p.skipChildren();   // no-op for plain values
+                }
+            }
+        }
+
+        return new Repository(new RepositoryRecord(id, name, createdAt, description, language, stargazers, watchers, forks),
+                fork, owner);
+    }
+
+    /**
+     * GET /users/{username}
+     *
+     * @param login         User login name
+     * @return              The user's details
+     * @throws IOException  If the request fails; an HttpException for an error response
+     */
+    public UserRecord fetchUser(String login) throws IOException {
+        HttpURLConnection uc = get(new URL(apiUrl + "/users/" + login));
+
+        int id = 0, followers = 0, following = 0;
+        String name = null, location = null;
+
+        try (InputStream in = uc.getInputStream(); JsonParser p = JSON.createParser(in)) {
+            expect(p, JsonToken.START_OBJECT);
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+
+                switch (field) {
+                    case "id":          id = p.getIntValue(); break;
+                    case "login":       name = textOrNull(p); break;
+                    case "location":    location = textOrNull(p); break;
+                    case "followers":   followers = p.getIntValue(); break;
+                    case "following":   following = p.getIntValue(); break;
+                    default:            p.skipChildren();
+                }
+            }
+        }
+
+        return new UserRecord(id, name, location, followers, following);
+    }
+
+    /**
+     * @param fullName      Full name (owner/name) of the repository
+     * @return              URL of the first page of GET /repos/{owner}/{repo}/contributors
+     * @throws IOException  If the URL can't be built
+     */
+    public URL contributorsUrl(String fullName) throws IOException {
+        return new URL(apiUrl + "/repos/" + fullName + "/contributors?per_page=" + PAGE_SIZE);
+    }
+
+    /**
+     * Fetches one page of contributors. Start with contributorsUrl() and follow ContributorPage.next.
+     *
+     * @param page          URL of the page
+     * @return              The page's contributors and the URL of the next page
+     * @throws IOException  If the request fails; an HttpException for an error response
+     */
+    public ContributorPage fetchContributors(URL page) throws IOException {
+        HttpURLConnection uc = get(page);
+
+        if (uc.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT)
+            return new ContributorPage(Collections.emptyList(), null);  // empty repository
+
+        List<UserRef> contributors = new ArrayList<>();
+        try (InputStream in = uc.getInputStream(); JsonParser p = JSON.createParser(in)) {
+            expect(p, JsonToken.START_ARRAY);
+
+            while (p.nextToken() == JsonToken.START_OBJECT)
+                contributors.add(readUserRef(p));
+        }
+        return new ContributorPage(contributors, nextPage(uc.getHeaderField("Link")));
+    }
+
+    /**
+     * Sends a GET request and hands back the connection once it answers 2xx. A primary or secondary rate limit
+     * is waited out by the handlers and the request sent again, in the same way as the library's Requester.
+     */
+    private HttpURLConnection get(URL url) throws IOException {
+        while (true) {
+            HttpURLConnection uc = connector.connect(url);
+            uc.setRequestProperty("Accept", "application/vnd.github.v3+json");
+            if (token != null && !token.isEmpty())
+                uc.setRequestProperty("Authorization", "token " + token);
+
+            int code = uc.getResponseCode();
+            if (code / 100 == 2)
+                return uc;
+
+            HttpException error = errorOf(uc, code);
+            if ("0".equals(uc.getHeaderField("X-RateLimit-Remaining")))
+                rateLimitHandler.onError(error, uc);
+            else if (ObservedHttpURLConnection.isSecondaryRateLimit(uc, code, error.getMessage()))
+                abuseLimitHandler.onError(error, uc);
+            else
+                throw error;
+        }
+    }
+
+    /**
+     * Builds the exception for an error response. Like the library, the message is Github's error body
+     * (ie. {"message":"Not Found",...}), or the status line if there is none.
+     */
+    private static HttpException errorOf(HttpURLConnection uc, int code) throws IOException {
+        String body = null;
+        try (InputStream es = uc.getErrorStream()) {
+            if (es != null)
+                body = IOUtils.toString(es, "UTF-8");
+        }
+
+        String message = (body != null && !body.isEmpty()) ? body
+                : "Server returned HTTP response code: " + code + ", message: '" + uc.getResponseMessage() + "' for URL: " + uc.getURL();
+        return new HttpException(message, code, uc.getResponseMessage(), uc.getURL().toString());
+    }
+
+    /*
+        Helpers
+     */
+
+    /**
+     * Reads the id and login of the user object the parser is at, skipping everything else.
+     */
+    private static UserRef readUserRef(JsonParser p) throws IOException {
+        if (p.getCurrentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+
+        int id = 0;
+        String login = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+
+            if (field.equals("id"))
+                id = p.getIntValue();
+            else if (field.equals("login"))
+                login = textOrNull(p);
+            else
+                p.skipChildren();
+        }
+        return login == null ? null : new UserRef(id, login);
+    }
+
+    private static void expect(JsonParser p, JsonToken token) throws IOException {
+        if (p.nextToken() != token)
+            throw new IOException("Unexpected response, expected " + token + " but got " + p.getCurrentToken());
+    }
+
+    private static String textOrNull(JsonParser p) throws IOException {
+        return p.getCurrentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+    }
+
+    /**
+     * Github's timestamps are ISO 8601 in UTC (ie. "2011-01-26T19:01:12Z").
+     */
+    private static Date parseDate(String timestamp) throws IOException {
+        if (timestamp == null)
+            return null;
+        try {
+            return Date.from(Instant.parse(timestamp));
+        } catch (DateTimeParseException e) {
+            throw new IOException("Unparseable date: " + timestamp, e);
+        }
+    }
+
+    /**
+     * Finds the rel="next" URL of a Link header:
+     *      <https://api.github.com/repositories/1/contributors?per_page=100&page=2>; rel="next", <...>; rel="last"
+     */
+    static URL nextPage(String link) throws IOException {
+        if (link == null)
+            return null;
+
+        for (String part : link.split(",")) {
+            int open = part.indexOf('<');
+            int close = part.indexOf('>');
+            if (open >= 0 && close > open && part.substring(close).contains("rel=\"next\""))
+                return new URL(part.substring(open + 1, close));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+import java.util.Date;
+
+/**
+ * A repository's miscellaneous information; one entry of Dataset2.
+ */
+public final class RepositoryRecord {
+
+    public final int id;
+    public final String fullName;
+    public final Date createdAt;
+    public final String description;    // may be null
+    public final String language;       // may be null
+    public final int stargazers;
+    public final int watchers;
+    public final int forks;
+
+    public RepositoryRecord(int id, String fullName, Date createdAt, String description, String language,
+                            int stargazers, int watchers, int forks) {
+        this.id = id;
+        this.fullName = fullName;
+        this.createdAt = createdAt;
+        this.description = description;
+        this.language = language;
+        this.stargazers = stargazers;
+        this.watchers = watchers;
+        this.forks = forks;
+    }
+}
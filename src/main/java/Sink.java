@@ -0,0 +1,45 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for the mined data. The Miner hands over typed records; how and where they
+ * are stored is up to the implementation (TextFileSink, JdbcSink).
+ *
+ * Implementations must be safe to call from several threads (the backfill and the event stream)
+ * and may buffer writes until flush() is called. The Miner flushes before it saves the 'since'
+ * value, so anything flushed is never behind the saved progress.
+ */
+public interface Sink extends Closeable {
+
+    /**
+     * Loads the users stored by an earlier run, so they are not fetched again.
+     *
+     * @param discovered    Set the stored users are added to
+     * @return              Number of users loaded
+     * @throws IOException  If the stored users can't be read
+     */
+    int loadDiscoveredUsers(MapSet<Integer, String> discovered) throws IOException;
+
+    /**
+     * Stores a newly discovered user.
+     */
+    void writeUser(UserRecord user) throws IOException;
+
+    /**
+     * Stores a repository together with its contributors. The list may be empty.
+     * Users referenced by the contributors are always written before the repository.
+     */
+    void writeRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException;
+
+    /**
+     * Stores a repository found through the event stream, with its contributors. Kept apart from the
+     * repositories of writeRepository(), which are written in increasing id order.
+     */
+    void writeEventRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException;
+
+    /**
+     * Makes everything written so far durable.
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,198 @@
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The original output of the program: Dataset1, Dataset2, Dataset3 and the DiscoveredUsersSet
+ * as plain text files. See README for the format of each file. Repositories found through the event
+ * stream go to EventDataset1 and EventDataset2, in the same format, so Dataset1 and Dataset2 stay in id order.
+ *
+ * Users and repositories are buffered and appended to the files in batches of BATCH_SIZE entries, or
+ * whenever flush() is called. A batch writes its users before its repositories, so Dataset3 and the
+ * DiscoveredUsersSet always hold the same users in the same order, and no Dataset1 entry is written
+ * before the users it references.
+ */
+public class TextFileSink implements Sink {
+
+    private static final int BATCH_SIZE = 500;  // users and repositories buffered before the files are written
+
+    private final File file1;
+    private final File file2;
+    private final File file3;
+    private final File dUserSet;
+    private final File eventFile1;
+    private final File eventFile2;
+
+    // Guarded by 'this'. The two user buffers always hold the same users in the same order.
+    private StringBuilder userSetBatch = new StringBuilder();
+    private StringBuilder dataset3Batch = new StringBuilder();
+    private StringBuilder dataset1Batch = new StringBuilder();
+    private StringBuilder dataset2Batch = new StringBuilder();
+    private StringBuilder eventDataset1Batch = new StringBuilder();
+    private StringBuilder eventDataset2Batch = new StringBuilder();
+    private int batched = 0;
+
+    public TextFileSink(File file1, File file2, File file3, File dUserSet, File eventFile1, File eventFile2) {
+        this.file1 = file1;
+        this.file2 = file2;
+        this.file3 = file3;
+        this.dUserSet = dUserSet;
+        this.eventFile1 = eventFile1;
+        this.eventFile2 = eventFile2;
+    }
+
+    @Override
+    public int loadDiscoveredUsers(MapSet<Integer, String> discovered) throws IOException {
+        int count = 0;
+        LineIterator iter = null;
+
+        try {
+            iter = FileUtils.lineIterator(dUserSet, "utf-8");
+
+            while (iter.hasNext()) {
+                String line = iter.nextLine();
+                String[] lineKV = line.split(",");
+
+                if (!discovered.put(Integer.parseInt(lineKV[0]), lineKV[1]))
+                    throw new IOException("MapSet.put returned False on a new insertion set..."); // cautionary code. This shouldn't ever trigger.
+                count ++;
+            }
+        } finally {
+            if (iter != null)
+                iter.close();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void writeUser(UserRecord user) throws IOException {
+        // Note: Set file always needs to be loaded on program start...
+        userSetBatch.append(user.id).append(',').append(user.login).append('\n');
+        dataset3Batch.append(toDataset3(user));
+
+        if (++batched >= BATCH_SIZE)
+            flush();
+    }
+
+    @Override
+    public synchronized void writeRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException {
+        dataset1Batch.append(toDataset1(repo.id, contributors));
+        dataset2Batch.append(toDataset2(repo));
+
+        if (++batched >= BATCH_SIZE)
+            flush();
+    }
+
+    @Override
+    public synchronized void writeEventRepository(RepositoryRecord repo, List<ContributorEdge> contributors) throws IOException {
+        eventDataset1Batch.append(toDataset1(repo.id, contributors));
+        eventDataset2Batch.append(toDataset2(repo));
+
+        if (++batched >= BATCH_SIZE)
+            flush();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (batched == 0)
+            return;
+
+        // users referenced by Dataset1 are written first
+        append(dUserSet, userSetBatch);
+        append(file3, dataset3Batch);
+        append(file1, dataset1Batch);
+        append(file2, dataset2Batch);
+        append(eventFile1, eventDataset1Batch);
+        append(eventFile2, eventDataset2Batch);
+        batched = 0;
+    }
+
+    /**
+     * Helper method appends a buffer to its file, if it holds anything, and empties it.
+     */
+    private static void append(File file, StringBuilder batch) throws IOException {
+        if (batch.length() == 0)
+            return;
+
+        FileUtils.writeStringToFile(file, batch.toString(), "utf-8", true);
+        batch.setLength(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Builds the Dataset1 entry: the repository id followed by its contributor ids.
+     */
+    static String toDataset1(int repoId, List<ContributorEdge> contributors) {
+        StringBuilder ds1 = new StringBuilder();
+        ds1.append(repoId);
+        ds1.append(":");
+        for (ContributorEdge edge : contributors) {
+            ds1.append(' ');
+            ds1.append(edge.userId);
+        }
+        ds1.append('\n');
+        return ds1.toString();
+    }
+
+    /**
+     * Builds the Dataset2 entry.
+     */
+    static String toDataset2(RepositoryRecord repo) {
+        StringBuilder ds2 = new StringBuilder();
+        ds2.append(repo.id);
+        ds2.append(": \"");
+        ds2.append(repo.fullName);
+        ds2.append("\", \"");
+        ds2.append(repo.createdAt.toString());
+        ds2.append("\", \"");
+
+        String details = repo.description;
+        if (details != null)
+            // Strip special characters from description...
+            details = details.replaceAll("\\n|\\r|\\r\\n", "");
+
+        ds2.append(details);
+        ds2.append("\", \"");
+        ds2.append(repo.language);
+        ds2.append("\", ");
+        ds2.append(repo.stargazers);
+        ds2.append(", ");
+        ds2.append(repo.watchers);
+        ds2.append(", ");
+        ds2.append(repo.forks);
+        ds2.append('\n');
+        return ds2.toString();
+    }
+
+    /**
+     * Builds the Dataset3 entry.
+     */
+    static String toDataset3(UserRecord user) {
+        StringBuilder ds3 = new StringBuilder();
+        ds3.append(user.id);
+        ds3.append(": \"");
+        ds3.append(user.login);
+        ds3.append("\", \"");
+
+        // Need to strip special characters from Location since users can apparently enter a custom string for it...
+        // See offending example: https://api.github.com/users/tomvangoethem
+        String location = user.location;
+        if (location != null)
+            location = location.replaceAll("\\n|\\r|\\r\\n", "");
+
+        ds3.append(location);
+        ds3.append("\", ");
+        ds3.append(user.followers);
+        ds3.append(", ");
+        ds3.append(user.following);
+        ds3.append('\n');
+        return ds3.toString();
+    }
+}
@@ -0,0 +1,554 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A MapSet of user ids to logins that keeps most of its entries on disk, for crawls with more discovered
+ * users than fit on the heap.
+ *
+ * Problem:
+ *     The DiscoveredUsersSet is loaded into a MapSet on start up, and Github has well over 100 million users.
+ * A ConcurrentHashMap of that many Integer/String entries needs several gigabytes of heap.
+ *
+ * Solution:
+ *     Three tiers, checked in order:
+ *      - A BlockedBloomFilter of every id. Most ids passed to put() are new users, and the filter says so
+ *        without touching the other tiers.
+ *      - A "hot" in-memory map of the most recent puts (HOT_ENTRIES unless told otherwise).
+ *      - Sorted runs on disk. When the hot map is full it is frozen and written out as a sorted run on a
+ *        background thread while a fresh hot map takes the puts. Each run keeps every INDEX_INTERVAL'th id in
+ *        memory (a sparse index), so a lookup reads one small block of the file. Runs are merged in the background,
+ *        newest first, whenever the newest run has grown to at least half the size of the one before it. The run
+ *        sizes then roughly double from newest to oldest and there are only a few of them.
+ *     A ReadWriteLock keeps put() an atomic check-and-insert: puts and lookups share the read lock, and the hot
+ *     map is only frozen, or the runs swapped for a merged one, under the write lock.
+ *     Reference: O'Neil et al., "The Log-Structured Merge-Tree (LSM-Tree)", Acta Informatica, 1996
+ *
+ * Removed ids that already made it to disk are remembered in memory (tombstones) and dropped at the next merge.
+ * The Miner only removes a user to roll back a failed fetch, right after putting them, so there are few.
+ *
+ * The runs are a cache of the Sink's discovered users, which are loaded again on every start up; any runs
+ * left in the directory by an earlier run of the program are deleted. Rebuilding them costs every user being
+ * put and written out again at each start (about 2 seconds per million users), which keeps the store from
+ * ever disagreeing with the Sink after a crash.
+ */
+public class TieredMapSet extends MapSet<Integer, String> {
+
+    private static final int HOT_ENTRIES = 1 << 20;     // default number of puts held in memory before they are written to disk
+    private static final int INDEX_INTERVAL = 64;       // entries per sparse index block
+    private static final int MERGE_RATIO = 2;           // merge the newest run into the one before when that is at most this much bigger
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /*
+        One sorted run on disk: records of (int id, short length, login bytes) in increasing id order.
+        Immutable once written.
+     */
+    private static final class Run {
+        final File file;
+        final FileChannel channel;
+        final int[] indexIds;       // id of every INDEX_INTERVAL'th record
+        final long[] indexOffsets;  // and its offset in the file
+        final long length;
+        final long count;
+
+        Run(File file, int[] indexIds, long[] indexOffsets, long length, long count) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.indexIds = indexIds;
+            this.indexOffsets = indexOffsets;
+            this.length = length;
+            this.count = count;
+        }
+
+        /**
+         * Finds an id with one positional read of the block the sparse index points to. Safe from several threads.
+         */
+        String find(int id) throws IOException {
+            if (count == 0 || id < indexIds[0])
+                return null;
+
+            int block = Arrays.binarySearch(indexIds, id);
+            if (block < 0)
+                block = -block - 2;     // the last block starting below the id
+
+            long from = indexOffsets[block];
+            long to = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : length;
+            ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+            while (buf.hasRemaining() && channel.read(buf, from + buf.position()) >= 0);
+            buf.flip();
+
+            while (buf.remaining() >= 6) {
+                int key = buf.getInt();
+                int len = buf.getShort() & 0xffff;
+                if (key == id) {
+                    byte[] login = new byte[len];
+                    buf.get(login);
+                    return new String(login, StandardCharsets.UTF_8);
+                }
+                if (key > id)
+                    return null;
+                buf.position(buf.position() + len);
+            }
+            return null;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the file goes either way
+            }
+            file.delete();
+        }
+    }
+
+    /*
+        Writes a run and builds its sparse index as it goes.
+     */
+    private static final class RunWriter implements AutoCloseable {
+        final File file;
+        final DataOutputStream out;
+        int[] indexIds = new int[64];
+        long[] indexOffsets = new long[64];
+        int indexed = 0;
+        long offset = 0, count = 0;
+
+        RunWriter(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        }
+
+        void write(int id, byte[] login) throws IOException {
+            if (count % INDEX_INTERVAL == 0) {
+                if (indexed == indexIds.length) {
+                    indexIds = Arrays.copyOf(indexIds, indexed * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexed * 2);
+                }
+                indexIds[indexed] = id;
+                indexOffsets[indexed++] = offset;
+            }
+            out.writeInt(id);
+            out.writeShort(login.length);
+            out.write(login);
+            offset += 6 + login.length;
+            count++;
+        }
+
+        Run finish() throws IOException {
+            out.close();
+            return new Run(file, Arrays.copyOf(indexIds, indexed), Arrays.copyOf(indexOffsets, indexed), offset, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /*
+        Reads a run front to back for a merge.
+     */
+    private static final class RunReader {
+        final int age;      // position of the run; higher is newer
+        final DataInputStream in;
+        int id;
+        byte[] login;
+
+        RunReader(int age, Run run) throws IOException {
+            this.age = age;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), BUFFER_SIZE));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                id = in.readInt();
+                login = new byte[in.readUnsignedShort()];
+                in.readFully(login);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+    }
+
+    private final File dir;
+    private final int hotEntries;
+    private final BlockedBloomFilter bloom;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "user-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Swapped only under the write lock.
+    private ConcurrentHashMap<Integer, String> hot = new ConcurrentHashMap<>();
+    private volatile Map<Integer, String> frozen = null;    // the previous hot map, while it is written to disk
+    private List<Run> runs = Collections.emptyList();   // oldest first, replaced rather than modified
+
+    private final Set<Integer> tombstones = ConcurrentHashMap.newKeySet();
+    private final AtomicLong size = new AtomicLong();
+    private int nextRun = 0;                // guarded by 'this'
+    private volatile IOException failure = null;
+
+    /**
+     * @param dir           Directory for the runs; created if missing, emptied if not
+     * @param expectedKeys  Number of ids the Bloom filter is sized for (10 bits each)
+     * @throws IOException  If the directory can't be created
+     */
+    public TieredMapSet(File dir, long expectedKeys) throws IOException {
+        this(dir, expectedKeys, HOT_ENTRIES);
+    }
+
+    /**
+     * @param dir           Directory for the runs; created if missing, emptied if not
+     * @param expectedKeys  Number of ids the Bloom filter is sized for (10 bits each)
+     * @param hotEntries    Puts held in memory before they are written to disk as a run
+     * @throws IOException  If the directory can't be created
+     */
+    public TieredMapSet(File dir, long expectedKeys, int hotEntries) throws IOException {
+        super((Void) null);     // the entries live in the tiers below, not in the base class' map
+        this.dir = dir;
+        this.hotEntries = Math.max(1, hotEntries);
+        this.bloom = new BlockedBloomFilter(expectedKeys);
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(".run"));
+        if (leftovers != null)
+            for (File f : leftovers)
+                f.delete();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, size.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public String get(Integer key) {
+        if (key == null)
+            return null;
+
+        lock.readLock().lock();
+        try {
+            return find(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a unique key-value mapping.
+     * @param key       Key for the map
+     * @param value     Value associated with the Key
+     * @return          True, if and only if the key does not exist, and insert succeeds.
+     */
+    @Override
+    public boolean put(Integer key, String value) {
+        // Key and/or Value must NOT be null
+        if (key == null || value == null)
+            return false;
+        throwIfFailed();
+
+        boolean inserted;
+        lock.readLock().lock();
+        try {
+            if (tombstones.remove(key)) {
+                // removed earlier, but still in a run or the frozen map; whoever clears the tombstone owns the key
+                hot.put(key, value);
+                inserted = true;
+            } else if (bloom.mightContain(key) && findBelowHot(key) != null) {
+                inserted = false;
+            } else {
+                inserted = hot.putIfAbsent(key, value) == null;
+                if (inserted)
+                    bloom.add(key);     // before the read lock is released, so it is in the filter before it can leave the hot map
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (inserted) {
+            size.incrementAndGet();
+            if (hot.size() >= hotEntries)
+                freeze();
+        }
+        return inserted;
+    }
+
+    /**
+     * Takes the write lock: a key put again after being removed can be in the hot map and, hidden by
+     * its old tombstone, in a run as well. Removes are rare (a rolled back fetch), so this is cheap.
+     */
+    @Override
+    public String remove(Integer key) {
+        if (key == null)
+            return null;
+
+        lock.writeLock().lock();
+        try {
+            String fromHot = hot.remove(key);
+            String below = findBelowHot(key);
+            if (below != null)
+                tombstones.add(key);
+
+            String value = fromHot != null ? fromHot : below;
+            if (value != null)
+                size.decrementAndGet();
+            return value;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            hot = new ConcurrentHashMap<>();
+            tombstones.clear();
+            bloom.clear();
+            size.set(0);
+            frozen = null;      // a run still being written from it is deleted by the flush
+            for (Run run : runs)
+                run.delete();
+            runs = Collections.emptyList();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /*
+        Lookups -- callers hold the read lock.
+     */
+
+    private String find(int key) {
+        String value = hot.get(key);
+        return value != null ? value : findBelowHot(key);
+    }
+
+    /**
+     * Looks in the frozen map and the runs, newest first, unless the key was removed.
+     */
+    private String findBelowHot(int key) {
+        if (tombstones.contains(key))
+            return null;
+
+        Map<Integer, String> f = frozen;
+        String value = f == null ? null : f.get(key);
+        if (value != null)
+            return value;
+
+        try {
+            for (int i = runs.size() - 1; i >= 0; i--) {
+                value = runs.get(i).find(key);
+                if (value != null)
+                    return value;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading the user store failed", e);
+        }
+        return null;
+    }
+
+    /*
+        Flushing and merging
+     */
+
+    /**
+     * Swaps a full hot map for an empty one and writes it to disk in the background. Waits while the
+     * previous frozen map is still being written, which keeps at most two maps' worth of entries in memory.
+     * Puts go on while it waits, so the hot map can briefly run over hotEntries.
+     */
+    private synchronized void freeze() {
+        while (frozen != null && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;     // stay over the limit for now; the next put tries again
+            }
+        }
+
+        Map<Integer, String> full;
+        lock.writeLock().lock();
+        try {
+            if (failure != null || hot.size() < hotEntries)
+                return;     // another thread froze it first
+            full = hot;
+            frozen = full;
+            hot = new ConcurrentHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        File file = new File(dir, (nextRun++) + ".run");
+        background.execute(() -> flush(full, file));
+    }
+
+    /**
+     * Background: writes a frozen map as a new run, then merges runs while the newest has caught up with the one before.
+     */
+    private void flush(Map<Integer, String> full, File file) {
+        try {
+            int[] keys = new int[full.size()];
+            int n = 0;
+            for (Integer key : full.keySet())
+                if (n < keys.length)
+                    keys[n++] = key;
+            Arrays.sort(keys, 0, n);
+
+            Run run;
+            try (RunWriter writer = new RunWriter(file)) {
+                for (int i = 0; i < n; i++)
+                    writer.write(keys[i], full.get(keys[i]).getBytes(StandardCharsets.UTF_8));
+                run = writer.finish();
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (frozen == full) {
+                    List<Run> next = new ArrayList<>(runs);
+                    next.add(run);
+                    runs = next;
+                    frozen = null;
+                } else
+                    run.delete();   // cleared while it was being written
+            } finally {
+                lock.writeLock().unlock();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+
+            mergeNewest();
+
+        } catch (IOException e) {
+            failure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Background: merges the two newest runs into one for as long as the older one is at most MERGE_RATIO
+     * times bigger. Only neighbouring runs are merged, so the runs stay in age order.
+     */
+    private void mergeNewest() throws IOException {
+        while (true) {
+            List<Run> current = runs;   // only this thread replaces runs, apart from clear()
+            int n = current.size();
+            if (n < 2 || current.get(n - 2).count > current.get(n - 1).count * MERGE_RATIO)
+                return;
+
+            Run older = current.get(n - 2), newer = current.get(n - 1);
+            File file;
+            synchronized (this) {
+                file = new File(dir, (nextRun++) + ".run");
+            }
+            Run merged = merge(older, newer, file);
+
+            lock.writeLock().lock();
+            try {
+                if (runs != current) {
+                    merged.delete();    // cleared while merging
+                    return;
+                }
+                List<Run> next = new ArrayList<>(current.subList(0, n - 2));
+                next.add(merged);
+                runs = next;
+                older.delete();
+                newer.delete();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Merges two runs by id. A duplicate id keeps the newer run's login; removed ids are dropped.
+     */
+    private Run merge(Run older, Run newer, File file) throws IOException {
+        RunReader[] readers = {new RunReader(0, older), new RunReader(1, newer)};
+        PriorityQueue<RunReader> heap = new PriorityQueue<>(2, (a, b) -> {
+            int c = Integer.compare(a.id, b.id);
+            return c != 0 ? c : Integer.compare(b.age, a.age);     // newer first
+        });
+
+        try (RunWriter writer = new RunWriter(file)) {
+            for (RunReader reader : readers)
+                if (reader.advance())
+                    heap.add(reader);
+
+            boolean first = true;
+            int last = 0;
+            while (!heap.isEmpty()) {
+                RunReader reader = heap.poll();
+                if ((first || reader.id != last) && !tombstones.contains(reader.id))
+                    writer.write(reader.id, reader.login);
+                first = false;
+                last = reader.id;
+
+                if (reader.advance())
+                    heap.add(reader);
+            }
+            return writer.finish();
+
+        } finally {
+            for (RunReader reader : readers)
+                reader.in.close();
+        }
+    }
+
+    /**
+     * @return  Number of runs on disk
+     */
+    int runCount() {
+        lock.readLock().lock();
+        try {
+            return runs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void throwIfFailed() {
+        if (failure != null)
+            throw new UncheckedIOException("Writing the user store failed", failure);
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * A user's detailed information; one entry of Dataset3 (and of the DiscoveredUsersSet).
+ */
+public final class UserRecord {
+
+    public final int id;
+    public final String login;
+    public final String location;       // may be null
+    public final int followers;
+    public final int following;
+
+    public UserRecord(int id, String login, String location, int followers, int following) {
+        this.id = id;
+        this.login = login;
+        this.location = location;
+        this.followers = followers;
+        this.following = following;
+    }
+}
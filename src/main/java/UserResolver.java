@@ -0,0 +1,91 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resolves contributors into user records for the Sink and is safe to share between threads.
+ *
+ * Problem:
+ *     A bare discoveredUsers.put() marks a user as discovered before they are fetched. Other threads
+ * can't tell "fetched" apart from "fetch in progress", so they either skip a user that never makes
+ * it to Dataset3 (if the fetch fails) or fetch the same user again.
+ *
+ * Solution:
+ *     The first thread to ask for a user becomes the only one fetching them. It publishes a future
+ * that concurrent callers for the same user wait on, so each new user costs exactly one api call.
+ * If the fetch fails, the discovered mark is rolled back and every waiting caller gets the failure.
+ * Any other failure (ie. the set of discovered users can't be written to) is passed on to the waiting
+ * callers too, so none of them takes a user that was never recorded as discovered.
+ */
+public class UserResolver {
+
+    private final MapSet<Integer, String> discovered;
+    private final ConcurrentHashMap<Integer, CompletableFuture<UserRecord>> inFlight = new ConcurrentHashMap<>();
+    private final int maxRetries;
+    private final Sink sink;
+
+    public UserResolver(MapSet<Integer, String> discovered, int maxRetries, Sink sink) {
+        this.discovered = discovered;
+        this.maxRetries = maxRetries;
+        this.sink = sink;
+    }
+
+    /**
+     * Makes sure the user is recorded. Fetches the user with the supplied Operation only if they haven't been
+     * discovered yet and no other thread is already fetching them; otherwise waits for that thread's result.
+     *
+     * @param id            User id
+     * @param login         User login name
+     * @param fetch         Retrieves the user's details (retried up to maxRetries times)
+     * @return              True, if this call discovered and recorded a new user
+     * @throws Throwable    The fetch failure, rethrown to every caller waiting on the same user
+     */
+    public boolean resolve(int id, String login, Operation<UserRecord> fetch) throws Throwable {
+        CompletableFuture<UserRecord> mine = new CompletableFuture<>();
+        CompletableFuture<UserRecord> pending = inFlight.putIfAbsent(id, mine);
+
+        // Someone else is already fetching this user; share their result.
+        if (pending != null) {
+            try {
+                pending.get();
+                return false;
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+
+        try {
+            if (!discovered.put(id, login)) {
+                mine.complete(null);
+                return false;   // already discovered (and recorded) earlier
+            }
+
+            UserRecord user;
+            try {
+                user = OperationHelper.doWithRetry(maxRetries, fetch);
+            } catch (Throwable t) {
+                discovered.remove(id);  // roll back so the user can be retried next time they are seen
+                throw t;
+            }
+
+            // User should be null if the fetch was handled without a retry; leave them undiscovered.
+            if (user == null) {
+                discovered.remove(id);
+                mine.complete(null);
+                return false;
+            }
+
+            sink.writeUser(user);
+            mine.complete(user);
+            return true;
+
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+
+        } finally {
+            // Only removed once 'discovered' holds the final answer, so later callers never see a gap.
+            inFlight.remove(id, mine);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the ConcurrencyLimiter by hand: when the limit grows, when it is cut, and when slots are refused.
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void growsOnlyWhileSaturated() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 16);
+
+        // one request at a time never uses the limit of 4
+        for (int i = 0; i < 100; i++)
+            limiter.release(limiter.acquire(), false, false, 1.0);
+        assertEquals(4, limiter.getLimit());
+
+        // with every slot in use, the limit grows by about one per limit's worth of responses
+        keepFull(limiter, 5, 0);
+        assertEquals(5, limiter.getLimit());
+
+        keepFull(limiter, 1000, 0);
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    public void failedRequestsDoNotGrowTheLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 16);
+
+        // one failure in every 20 responses stays below the error tolerance, and only the others grow the limit
+        keepFull(limiter, 40, 20);
+        assertTrue(limiter.getLimit() > 4);
+
+        // a failure of a saturated limit doesn't grow it
+        ConcurrencyLimiter failing = new ConcurrencyLimiter(4, 16);
+        List<Long> tickets = acquireAll(failing);
+        failing.release(tickets.remove(0), false, true, 1.0);
+        failing.release(failing.acquire(), false, true, 1.0);
+        assertEquals(4, failing.getLimit());
+    }
+
+    @Test
+    public void cutsOncePerBurstOfOverload() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 16);
+
+        // every request of the burst was sent before the first cut
+        for (long ticket : acquireAll(limiter))
+            limiter.release(ticket, true, false, 1.0);
+        assertEquals(8, limiter.getLimit());
+
+        // a request sent after the cut is news
+        limiter.release(limiter.acquire(), true, false, 1.0);
+        assertEquals(4, limiter.getLimit());
+
+        // and so is a report that comes in after the slot is given back
+        long late = limiter.acquire();
+        limiter.release(late, false, false, 1.0);
+        limiter.overloaded(late);
+        limiter.overloaded(late);
+        assertEquals(2, limiter.getLimit());
+
+        limiter.overloaded(ConcurrencyLimiter.NO_SLOT);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void climbingLatenciesCutTheLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 8);
+
+        for (int i = 0; i < 2; i++)
+            limiter.release(limiter.acquire(), false, false, 5.0);
+        assertEquals(8, limiter.getLimit());    // smoothed ratio 1.9
+
+        limiter.release(limiter.acquire(), false, false, 5.0);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void aRunOfFailuresCutsTheLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 8);
+
+        for (int i = 0; i < 2; i++)
+            limiter.release(limiter.acquire(), false, true, -1);
+        assertEquals(8, limiter.getLimit());    // smoothed error rate 0.19
+
+        limiter.release(limiter.acquire(), false, true, -1);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void tryAcquireRefusesAtTheLimitAndWhilePaused() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+
+        long ticket = limiter.tryAcquire();
+        assertNotEquals(ConcurrencyLimiter.NO_SLOT, ticket);
+        assertEquals(ConcurrencyLimiter.NO_SLOT, limiter.tryAcquire());
+        limiter.release(ticket);
+        assertEquals(0, limiter.getInFlight());
+
+        assertTrue(limiter.pause(60000));
+        assertFalse(limiter.pause(1000));      // already held back longer
+        assertEquals(ConcurrencyLimiter.NO_SLOT, limiter.tryAcquire());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void acquireWaitsOutAPause() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        limiter.pause(300);
+
+        long start = System.currentTimeMillis();
+        limiter.release(limiter.acquire(), false, false, 1.0);
+        assertTrue(System.currentTimeMillis() - start >= 250);
+    }
+
+    /*
+        Helpers
+     */
+
+    private static List<Long> acquireAll(ConcurrencyLimiter limiter) throws InterruptedException {
+        List<Long> tickets = new ArrayList<>();
+        while (limiter.getInFlight() < limiter.getLimit())
+            tickets.add(limiter.acquire());
+        return tickets;
+    }
+
+    /**
+     * Keeps every slot in use: each response frees a slot that is taken again right away.
+     *
+     * @param failEvery Every how many responses one fails, 0 for none
+     */
+    private static void keepFull(ConcurrencyLimiter limiter, int responses, int failEvery) throws InterruptedException {
+        Deque<Long> tickets = new ArrayDeque<>(acquireAll(limiter));
+        for (int i = 1; i <= responses; i++) {
+            limiter.release(tickets.poll(), false, failEvery > 0 && i % failEvery == 0, 1.0);
+            tickets.addAll(acquireAll(limiter));
+        }
+        for (long ticket : tickets)
+            limiter.release(ticket);
+    }
+}
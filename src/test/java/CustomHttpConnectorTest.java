@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the timeouts follow an endpoint's recent latencies, between MIN_TIMEOUT and the configured ceilings.
+ * Connections are only opened, never connected.
+ */
+public class CustomHttpConnectorTest {
+
+    private static final String CONTRIBUTORS = "http://127.0.0.1:1/repos/foo/bar/contributors";
+
+    private final CustomHttpConnector connector = new CustomHttpConnector(30000, 60000, new RateLimitTracker(),
+            new ConcurrencyLimiter(1, 1), false);
+
+    @Test
+    public void usesTheCeilingsUntilAnEndpointHasEnoughSamples() throws IOException {
+        record("repos/*/*/contributors", 19, 100);
+        assertTimeouts(30000, 60000, CONTRIBUTORS);
+    }
+
+    @Test
+    public void neverGoesBelowTenSeconds() throws IOException {
+        record("repos/*/*/contributors", 20, 100);
+        assertTimeouts(10000, 10000, CONTRIBUTORS);
+    }
+
+    @Test
+    public void followsTheTailLatencyInBetween() throws IOException {
+        record("repos/*/*/contributors", 20, 5000);
+        assertTimeouts(20000, 20000, CONTRIBUTORS);
+    }
+
+    @Test
+    public void neverGoesAboveTheCeilings() throws IOException {
+        record("repos/*/*/contributors", 20, 12000);
+        assertTimeouts(30000, 48000, CONTRIBUTORS);
+
+        record("repos/*/*/contributors", 256, 20000);
+        assertTimeouts(30000, 60000, CONTRIBUTORS);
+    }
+
+    @Test
+    public void endpointsAreTimedApart() throws IOException {
+        record("repos/*/*/contributors", 20, 100);
+        assertTimeouts(30000, 60000, "http://127.0.0.1:1/users/octocat");
+        assertTimeouts(10000, 10000, "http://127.0.0.1:1/repos/other/repo/contributors?page=2");
+    }
+
+    @Test
+    public void hedgesOnlyWhenAskedTo() {
+        record("users/*", 20, 300);
+        assertEquals(-1, connector.hedgeDelay("users/*"));
+
+        CustomHttpConnector hedging = new CustomHttpConnector(30000, new RateLimitTracker(), new ConcurrencyLimiter(1, 1), true);
+        assertEquals(-1, hedging.hedgeDelay("users/*"));     // no samples yet
+        for (int i = 0; i < 20; i++)
+            hedging.getLatencies().record("users/*", 300);
+        assertEquals(300, hedging.hedgeDelay("users/*"));
+    }
+
+    private void record(String endpoint, int samples, long millis) {
+        for (int i = 0; i < samples; i++)
+            connector.getLatencies().record(endpoint, millis);
+    }
+
+    private void assertTimeouts(int connect, int read, String url) throws IOException {
+        HttpURLConnection uc = connector.open(new URL(url));
+        assertEquals(connect, uc.getConnectTimeout());
+        assertEquals(read, uc.getReadTimeout());
+    }
+}
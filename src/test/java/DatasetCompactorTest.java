@@ -0,0 +1,164 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs DatasetCompactor with runs of a line or two and a fan-in of two, so even a short Dataset3 is spread
+ * over many runs and takes several merge passes.
+ */
+public class DatasetCompactorTest {
+
+    private static final int RUN_BYTES = 20;
+    private static final int MAX_FAN_IN = 2;
+
+    // User 1 is written three times and user 3 twice, each copy in a different run.
+    private static final String DATASET3 = ""
+            + "3: \"c\", \"x\", 0, 0\n"
+            + "1: \"a\", \"first\", 0, 0\n"
+            + "2: \"b\", \"x\", 0, 0\n"
+            + "1: \"a\", \"second\", 0, 0\n"
+            + "4: \"d\", \"x\", 0, 0\n"
+            + "3: \"c\", \"y\", 0, 0\n"
+            + "5: \"e\", \"x\", 0, 0\n"
+            + "1: \"a\", \"third\", 0, 0\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheFirstCopyAcrossRunsAndPasses() throws Exception {
+        File file3 = write("Dataset3.txt", DATASET3);
+        File dUserSet = write("DiscoveredUsersSet.txt", "3,c\n1,a\n2,b\n4,d\n5,e\n");
+
+        compactor(file3, dUserSet, DatasetCompactor.Policy.FIRST).compact();
+
+        assertEquals(Arrays.asList(
+                "1: \"a\", \"first\", 0, 0",
+                "2: \"b\", \"x\", 0, 0",
+                "3: \"c\", \"x\", 0, 0",
+                "4: \"d\", \"x\", 0, 0",
+                "5: \"e\", \"x\", 0, 0"), read(file3));
+    }
+
+    @Test
+    public void keepsTheLastCopyAcrossRunsAndPasses() throws Exception {
+        File file3 = write("Dataset3.txt", DATASET3);
+        File dUserSet = write("DiscoveredUsersSet.txt", "3,c\n1,a\n2,b\n4,d\n5,e\n");
+
+        compactor(file3, dUserSet, DatasetCompactor.Policy.LAST).compact();
+
+        assertEquals(Arrays.asList(
+                "1: \"a\", \"third\", 0, 0",
+                "2: \"b\", \"x\", 0, 0",
+                "3: \"c\", \"y\", 0, 0",
+                "4: \"d\", \"x\", 0, 0",
+                "5: \"e\", \"x\", 0, 0"), read(file3));
+    }
+
+    @Test
+    public void dropsMalformedLines() throws Exception {
+        File file3 = write("Dataset3.txt", "2: \"b\", \"x\", 0, 0\nnot a user\n\n1: \"a\", \"x\", 0, 0\r\n: \"no id\"\n");
+        File dUserSet = write("DiscoveredUsersSet.txt", "2,b\n1,a\n");
+
+        compactor(file3, dUserSet, DatasetCompactor.Policy.LAST).compact();
+
+        assertEquals(Arrays.asList("1: \"a\", \"x\", 0, 0", "2: \"b\", \"x\", 0, 0"), read(file3));
+        assertEquals(Arrays.asList("1,a", "2,b"), read(dUserSet));
+    }
+
+    @Test
+    public void rebuildsTheDiscoveredUsersInTheOrderOfDataset3() throws Exception {
+        File file3 = write("Dataset3.txt", DATASET3);
+        // user 9 was marked as discovered but never written to Dataset3, so it is fetched again next time
+        File dUserSet = write("DiscoveredUsersSet.txt", "3,c\n1,a\n9,i\n2,b\n4,d\n5,e\n1,a\n");
+
+        compactor(file3, dUserSet, DatasetCompactor.Policy.LAST).compact();
+
+        List<String> ds3 = read(file3);
+        List<String> set = read(dUserSet);
+        assertEquals(ds3.size(), set.size());
+        for (int i = 0; i < ds3.size(); i++) {
+            String[] user = set.get(i).split(",");
+            assertTrue(ds3.get(i), ds3.get(i).startsWith(user[0] + ": \"" + user[1] + "\","));
+        }
+        assertEquals(Arrays.asList("1,a", "2,b", "3,c", "4,d", "5,e"), set);
+    }
+
+    @Test
+    public void leavesTheOriginalsAloneWhenInterrupted() throws Exception {
+        File file3 = write("Dataset3.txt", DATASET3);
+        File dUserSet = write("DiscoveredUsersSet.txt", "3,c\n1,a\n2,b\n4,d\n5,e\n");
+        byte[] before3 = Files.readAllBytes(file3.toPath());
+        byte[] beforeSet = Files.readAllBytes(dUserSet.toPath());
+
+        Thread.currentThread().interrupt();     // the wait for the sorted runs fails
+        try {
+            compactor(file3, dUserSet, DatasetCompactor.Policy.LAST).compact();
+            fail("the compaction should have been interrupted");
+        } catch (InterruptedException expected) {
+            // the runs weren't merged
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertArrayEquals(before3, Files.readAllBytes(file3.toPath()));
+        assertArrayEquals(beforeSet, Files.readAllBytes(dUserSet.toPath()));
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void leavesTheOriginalsAloneWhenTheLastStepBeforeTheRenamesFails() throws Exception {
+        File file3 = write("Dataset3.txt", DATASET3);
+        // a directory in place of the DiscoveredUsersSet can't be counted after the new files are written
+        File dUserSet = folder.newFolder("DiscoveredUsersSet.txt");
+        byte[] before3 = Files.readAllBytes(file3.toPath());
+
+        try {
+            compactor(file3, dUserSet, DatasetCompactor.Policy.LAST).compact();
+            fail("reading the DiscoveredUsersSet should fail");
+        } catch (IOException expected) {
+            // nothing renamed
+        }
+
+        assertArrayEquals(before3, Files.readAllBytes(file3.toPath()));
+        assertEquals(0, dUserSet.list().length);
+        assertNoTemporaryFiles();
+    }
+
+    /*
+        Helpers
+     */
+
+    private static DatasetCompactor compactor(File file3, File dUserSet, DatasetCompactor.Policy policy) {
+        return new DatasetCompactor(file3, dUserSet, policy, RUN_BYTES, MAX_FAN_IN);
+    }
+
+    private void assertNoTemporaryFiles() {
+        List<String> names = new ArrayList<>(Arrays.asList(folder.getRoot().list()));
+        names.removeAll(Arrays.asList("Dataset3.txt", "DiscoveredUsersSet.txt"));
+        assertEquals(new ArrayList<String>(), names);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> read(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,258 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs EventStreamMiner.poll() against a local stand-in for the events feed, then mines the queued repositories
+ * on the test's thread.
+ */
+public class EventStreamMinerTest {
+
+    /*
+        A canned response of the stand-in server.
+     */
+    private static final class Response {
+        final int code;
+        final String etag;
+        final String pollInterval;
+        final String body;
+        String next;    // query of the rel="next" page, if any
+
+        Response(int code, String etag, String pollInterval, String body) {
+            this.code = code;
+            this.etag = etag;
+            this.pollInterval = pollInterval;
+            this.body = body;
+        }
+
+        Response next(String query) {
+            next = query;
+            return this;
+        }
+    }
+
+    private HttpServer server;
+    private final Deque<Response> responses = new ArrayDeque<>();
+    private final List<String> ifNoneMatch = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    private String apiUrl;
+
+    private final List<String> repositories = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private EventStreamMiner stream;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/events", exchange -> {
+            ifNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            queries.add(exchange.getRequestURI().getQuery());
+            Response r = responses.poll();
+
+            if (r.etag != null)
+                exchange.getResponseHeaders().set("ETag", r.etag);
+            if (r.pollInterval != null)
+                exchange.getResponseHeaders().set("X-Poll-Interval", r.pollInterval);
+            if (r.next != null)
+                exchange.getResponseHeaders().set("Link", "<" + apiUrl + "/events?" + r.next + ">; rel=\"next\"");
+
+            if (r.body == null) {
+                exchange.sendResponseHeaders(r.code, -1);
+            } else {
+                byte[] body = r.body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(r.code, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+
+        apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        stream = new EventStreamMiner(apiUrl, "token", HttpConnector.DEFAULT, new EventStreamMiner.Listener() {
+            @Override
+            public void onRepository(int id, String fullName) {
+                repositories.add(id + " " + fullName);
+            }
+            @Override
+            public void onError(String message) {
+                errors.add(message);
+            }
+        });
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void passesOnRepositoriesOfWantedEventsOldestFirst() throws Exception {
+        // the feed lists the newest event first
+        responses.add(new Response(200, "\"a\"", null, "["
+                + event(15, "WatchEvent", 5, "o/watched", null) + ","
+                + event(14, "MemberEvent", 4, "o/member", null) + ","
+                + event(13, "PushEvent", 3, "o/pushed", null) + ","
+                + event(12, "CreateEvent", 2, "o/branch", "branch") + ","
+                + event(11, "CreateEvent", 1, "o/created", "repository")
+                + "]"));
+
+        poll();
+
+        assertEquals(Arrays.asList("1 o/created", "3 o/pushed", "4 o/member"), repositories);
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void sendsTheETagBackAndSkipsANotModifiedFeed() throws Exception {
+        responses.add(new Response(200, "\"a\"", null, "[" + event(11, "PushEvent", 1, "o/one", null) + "]"));
+        responses.add(new Response(304, null, null, null));
+        responses.add(new Response(200, "\"b\"", null, "[]"));
+
+        poll();
+        poll();
+        poll();
+
+        assertNull(ifNoneMatch.get(0));
+        assertEquals("\"a\"", ifNoneMatch.get(1));
+        assertEquals("\"a\"", ifNoneMatch.get(2));     // a 304 keeps the ETag it was answered for
+        assertEquals(Collections.singletonList("1 o/one"), repositories);
+    }
+
+    @Test
+    public void pollsNoFasterThanTheServerAsks() throws Exception {
+        assertEquals(60, stream.getPollInterval());
+
+        responses.add(new Response(200, "\"a\"", "120", "[]"));
+        poll();
+        assertEquals(120, stream.getPollInterval());
+
+        responses.add(new Response(304, null, "90", null));
+        poll();
+        assertEquals(90, stream.getPollInterval());
+
+        responses.add(new Response(304, null, "not a number", null));
+        poll();
+        assertEquals(60, stream.getPollInterval());
+    }
+
+    @Test
+    public void skipsEventsSeenInAnEarlierPoll() throws Exception {
+        responses.add(new Response(200, "\"a\"", null, "["
+                + event(12, "PushEvent", 2, "o/two", null) + ","
+                + event(11, "PushEvent", 1, "o/one", null)
+                + "]"));
+        // the next poll of the feed overlaps the last one
+        responses.add(new Response(200, "\"b\"", null, "["
+                + event(14, "PushEvent", 4, "o/four", null) + ","
+                + event(13, "PushEvent", 3, "o/three", null) + ","
+                + event(12, "PushEvent", 2, "o/two", null) + ","
+                + event(11, "PushEvent", 1, "o/one", null)
+                + "]"));
+
+        poll();
+        poll();
+
+        assertEquals(Arrays.asList("1 o/one", "2 o/two", "3 o/three", "4 o/four"), repositories);
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void followsTheNextPagesBackToTheLastEventSeen() throws Exception {
+        responses.add(new Response(200, "\"a\"", null, "[" + event(10, "PushEvent", 1, "o/one", null) + "]"));
+        responses.add(new Response(200, "\"b\"", null, "["
+                + event(14, "PushEvent", 4, "o/four", null) + ","
+                + event(13, "PushEvent", 3, "o/three", null)
+                + "]").next("per_page=100&page=2"));
+        responses.add(new Response(200, null, null, "["
+                + event(12, "PushEvent", 2, "o/two", null) + ","
+                + event(10, "PushEvent", 1, "o/one", null)
+                + "]").next("per_page=100&page=3"));
+
+        poll();
+        poll();
+
+        // page 3 isn't fetched: page 2 already reaches back to event 10
+        assertEquals(Arrays.asList("per_page=100", "per_page=100", "per_page=100&page=2"), queries);
+        assertEquals(Arrays.asList("\"a\"", null), ifNoneMatch.subList(1, 3));     // only the first page is conditional
+        assertEquals(Arrays.asList("1 o/one", "2 o/two", "3 o/three", "4 o/four"), repositories);
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void reportsAGapWhenTheFeedCanNotReachBackFarEnough() throws Exception {
+        responses.add(new Response(200, "\"a\"", null, "[" + event(10, "PushEvent", 1, "o/one", null) + "]"));
+        // three full pages, all newer than event 10, and a fourth the feed would offer
+        for (int page = 0; page < 3; page++) {
+            StringBuilder events = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                long id = 1000 - page * 100 - i;
+                events.append(i == 0 ? "" : ",").append(event(id, "WatchEvent", 5, "o/watched", null));
+            }
+            responses.add(new Response(200, null, null, "[" + events + "]").next("per_page=100&page=" + (page + 2)));
+        }
+
+        poll();
+        poll();
+
+        assertEquals(4, queries.size());    // the 300 events the feed keeps, and no more
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("10 and 701"));
+    }
+
+    @Test(timeout = 10000)
+    public void stopEndsTheWaitBetweenPolls() throws InterruptedException {
+        responses.add(new Response(200, "\"a\"", "120", "[]"));
+
+        Thread thread = new Thread(stream);
+        thread.start();
+        while (ifNoneMatch.isEmpty())
+            Thread.sleep(10);
+
+        stream.stop();
+        thread.join();
+    }
+
+    @Test(expected = IOException.class)
+    public void throwsOnAnErrorResponse() throws Exception {
+        responses.add(new Response(500, null, null, null));
+        poll();
+    }
+
+    /**
+     * Polls once, then mines everything that was queued.
+     */
+    private void poll() throws IOException, InterruptedException {
+        stream.poll();
+        while (stream.mineNext(0))
+            ;
+    }
+
+    /**
+     * Builds one event of the feed.
+     */
+    private static String event(long id, String type, int repoId, String repoName, String refType) {
+        String payload = refType == null ? "{}" : "{\"ref_type\":\"" + refType + "\"}";
+        return "{\"id\":\"" + id + "\",\"type\":\"" + type + "\","
+                + "\"repo\":{\"id\":" + repoId + ",\"name\":\"" + repoName + "\"},"
+                + "\"payload\":" + payload + "}";
+    }
+}
@@ -0,0 +1,182 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs IntegrityChecker over a few lines of each data set, and its line scanner over awkward files.
+ */
+public class IntegrityCheckerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file1, file2, file3, dUserSet;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private PrintStream stdout;
+
+    @Before
+    public void captureReport() throws IOException {
+        file1 = folder.newFile("Dataset1.txt");
+        file2 = folder.newFile("Dataset2.txt");
+        file3 = folder.newFile("Dataset3.txt");
+        dUserSet = folder.newFile("DiscoveredUsersSet.txt");
+
+        stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+    }
+
+    @After
+    public void restoreStdout() {
+        System.setOut(stdout);
+    }
+
+    @Test
+    public void scanLinesHandsOverALineLongerThanTheBuffer() throws IOException {
+        char[] chars = new char[200000];    // a few times the scanner's buffer
+        Arrays.fill(chars, '7');
+        String longLine = new String(chars);
+        File file = folder.newFile("long.txt");
+        write(file, "1: a\n" + longLine + "\n2: b");
+
+        assertEquals(Arrays.asList("0 1: a", "5 " + longLine, (longLine.length() + 6) + " 2: b"), lines(file));
+    }
+
+    @Test
+    public void scanLinesDropsTheCarriageReturnOfCrlfEndings() throws IOException {
+        File file = folder.newFile("crlf.txt");
+        write(file, "1,a\r\n2,b\r\n\r\n3,c\r\n");
+
+        assertEquals(Arrays.asList("0 1,a", "5 2,b", "10 ", "12 3,c"), lines(file));
+    }
+
+    @Test
+    public void aConsistentCrawlHasNoProblems() throws Exception {
+        write(file1, "1: 10 11\n4: 11\n");
+        write(file2, "1: \"o/one\"\n4: \"o/four\"\n");
+        write(file3, "10: \"a\"\n11: \"b\"\n");
+        write(dUserSet, "10,a\n11,b\n");
+
+        assertEquals(0, check());
+        assertReported("2 ids skipped between 1 and 4");
+    }
+
+    @Test
+    public void reportsContributorsWithoutAUser() throws Exception {
+        write(file1, "1: 10 12\n");
+        write(file2, "1: \"o/one\"\n");
+        write(file3, "10: \"a\"\n");
+        write(dUserSet, "10,a\n");
+
+        assertEquals(1, check());
+        assertReported("Contributor ids in Dataset1.txt without a Dataset3.txt entry: 1");
+        assertReported("[12]");
+    }
+
+    @Test
+    public void reportsDuplicateAndOutOfOrderRepositories() throws Exception {
+        write(file1, "3: 10\n1: 10\n3: 10\n");
+        write(file2, "3: \"o/three\"\n1: \"o/one\"\n3: \"o/three\"\n");
+        write(file3, "10: \"a\"\n");
+        write(dUserSet, "10,a\n");
+
+        assertEquals(6, check());
+        assertReported("Duplicate repository ids in Dataset1.txt: 1");
+        assertReported("Duplicate repository ids in Dataset2.txt: 1");
+        assertReported("Out of order repository ids in Dataset1.txt: 2");
+        assertReported("Out of order repository ids in Dataset2.txt: 2");
+    }
+
+    @Test
+    public void reportsRepositoriesMissingFromEitherFile() throws Exception {
+        write(file1, "1: 10\n2: 10\n");
+        write(file2, "2: \"o/two\"\n3: \"o/three\"\n");
+        write(file3, "10: \"a\"\n");
+        write(dUserSet, "10,a\n");
+
+        assertEquals(2, check());
+        assertReported("Repository ids in Dataset1.txt but not Dataset2.txt: 1");
+        assertReported("Repository ids in Dataset2.txt but not Dataset1.txt: 1");
+    }
+
+    @Test
+    public void reportsMalformedRepositoryLines() throws Exception {
+        write(file1, "not an id\n1: 10\n");
+        write(file2, "1: \"o/one\"\n");
+        write(file3, "10: \"a\"\n");
+        write(dUserSet, "10,a\n");
+
+        assertEquals(1, check());
+        assertReported("Malformed lines in Dataset1.txt / Dataset2.txt: 1");
+    }
+
+    @Test
+    public void reportsDuplicateUsers() throws Exception {
+        write(file3, "10: \"a\"\n10: \"a\"\n");
+        write(dUserSet, "10,a\n10,a\n");
+
+        assertEquals(2, check());
+        assertReported("Duplicate user ids in Dataset3.txt: 1");
+        assertReported("Duplicate user ids in DiscoveredUsersSet.txt: 1");
+    }
+
+    @Test
+    public void reportsWhereTheUserFilesDiverge() throws Exception {
+        write(file3, "10: \"a\"\n11: \"b\"\n");
+        write(dUserSet, "11,b\n10,a\n");
+
+        assertEquals(1, check());
+        assertReported("line 1: 10 vs 11");
+    }
+
+    @Test
+    public void listsSharedLoginsWithoutCountingThem() throws Exception {
+        write(file3, "10: \"Octo\"\n11: \"octo\"\n");
+        write(dUserSet, "10,Octo\n11,octo\n");
+
+        assertEquals(0, check());
+        assertReported("Logins shared by more than one user id (not counted): 1");
+        assertReported("octo=[10, 11]");
+    }
+
+    /*
+        Helpers
+     */
+
+    private long check() throws Exception {
+        return new IntegrityChecker(file1, file2, file3, dUserSet).check();
+    }
+
+    private void assertReported(String text) {
+        String report = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue("missing \"" + text + "\" in:\n" + report, report.contains(text));
+    }
+
+    /**
+     * Scans a file and returns its lines, each prefixed with its offset.
+     */
+    private static List<String> lines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        IntegrityChecker.scanLines(file, (buf, start, end, offset) ->
+                lines.add(offset + " " + new String(buf, start, end - start, StandardCharsets.UTF_8)));
+        return lines;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
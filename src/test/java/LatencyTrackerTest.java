@@ -0,0 +1,61 @@
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the endpoint keys that latencies are grouped under, and the percentiles of a window.
+ */
+public class LatencyTrackerTest {
+
+    @Test
+    public void namesAndNumbersAreReplacedByWildcards() throws MalformedURLException {
+        assertEquals("repos/*/*/contributors", key("https://api.github.com/repos/kohsuke/github-api/contributors"));
+        assertEquals("repos/*/*/contributors", key("https://api.github.com/repos/foo/bar/contributors?per_page=100"));
+        assertEquals("repos/*/*", key("https://api.github.com/repos/foo/bar"));
+        assertEquals("users/*", key("https://api.github.com/users/octocat"));
+        assertEquals("orgs/*/repos", key("https://api.github.com/orgs/github/repos"));
+        assertEquals("repositories", key("https://api.github.com/repositories?since=364"));
+        assertEquals("user/*", key("https://api.github.com/user/583231"));
+        assertEquals("rate_limit", key("https://api.github.com/rate_limit"));
+    }
+
+    @Test
+    public void nextPagesShareTheirFirstPagesKey() throws MalformedURLException {
+        // the Link header of the contributors list points to /repositories/{id}/..., not /repos/{owner}/{name}/...
+        assertEquals("repositories/*/contributors",
+                key("https://api.github.com/repositories/1296269/contributors?per_page=100&page=2"));
+        assertEquals("repositories/*/contributors",
+                key("https://api.github.com/repositories/42/contributors?page=7"));
+    }
+
+    @Test
+    public void percentilesNeedEnoughSamples() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 1; i < 20; i++)
+            tracker.record("users/*", i);
+        assertEquals(-1, tracker.percentile("users/*", 0.99));
+        assertEquals(-1, tracker.percentile("repos/*/*", 0.99));
+
+        for (int i = 20; i <= 100; i++)
+            tracker.record("users/*", i);
+        assertEquals(99, tracker.percentile("users/*", 0.99));
+        assertEquals(50, tracker.percentile("users/*", 0.5));
+    }
+
+    @Test
+    public void percentilesFollowTheLatestSamples() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < 256; i++)
+            tracker.record("users/*", 5000);
+        for (int i = 0; i < 256; i++)
+            tracker.record("users/*", 100);
+        assertEquals(100, tracker.percentile("users/*", 0.99));
+    }
+
+    private static String key(String url) throws MalformedURLException {
+        return LatencyTracker.endpointOf(new URL(url));
+    }
+}
@@ -0,0 +1,161 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends requests through the CustomHttpConnector to a local stand-in server and checks which answers
+ * cut the ConcurrencyLimiter: secondary rate limits do, a blocked repository or the primary rate limit don't.
+ */
+public class ObservedHttpURLConnectionTest {
+
+    private static final int LIMIT = 8;
+
+    private HttpServer server;
+    private String baseUrl;
+    private int code;
+    private final Map<String, String> headers = new HashMap<>();
+    private String body;
+
+    private ConcurrencyLimiter limiter;
+    private CustomHttpConnector connector;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            for (Map.Entry<String, String> h : headers.entrySet())
+                exchange.getResponseHeaders().set(h.getKey(), h.getValue());
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        limiter = new ConcurrencyLimiter(LIMIT, LIMIT);
+        connector = new CustomHttpConnector(30000, new RateLimitTracker(), limiter, false);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void aBlockedRepositoryDoesNotCutTheLimit() throws IOException {
+        respond(403, "{\"message\":\"Repository access blocked\",\"block\":{\"reason\":\"tos\"}}");
+        headers.put("X-RateLimit-Remaining", "4000");
+
+        for (int i = 0; i < 5; i++) {
+            HttpURLConnection uc = send("/repos/o/blocked");
+            assertEquals(403, uc.getResponseCode());
+            assertFalse(ObservedHttpURLConnection.isSecondaryRateLimit(uc, 403, error(uc)));
+        }
+        assertEquals(LIMIT, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void theUsedUpPrimaryRateLimitDoesNotCutTheLimit() throws IOException {
+        respond(403, "{\"message\":\"API rate limit exceeded for user ID 1.\"}");
+        headers.put("X-RateLimit-Remaining", "0");
+        send("/users/octocat").getResponseCode();
+
+        respond(429, "{\"message\":\"API rate limit exceeded for user ID 1.\"}");
+        headers.put("X-RateLimit-Remaining", "0");
+        send("/users/octocat").getResponseCode();
+
+        assertEquals(LIMIT, limiter.getLimit());
+    }
+
+    @Test
+    public void aRetryAfterOrA429CutsTheLimit() throws IOException {
+        respond(403, "{\"message\":\"You have exceeded a secondary rate limit.\"}");
+        headers.put("Retry-After", "1");
+        send("/users/octocat").getResponseCode();
+        assertEquals(LIMIT / 2, limiter.getLimit());
+
+        respond(429, "{\"message\":\"Too many requests\"}");
+        send("/users/octocat").getResponseCode();
+        assertEquals(LIMIT / 4, limiter.getLimit());
+    }
+
+    /**
+     * A 403 that only names the secondary rate limit in its body is reported by the AbuseLimitHandler,
+     * once per request.
+     */
+    @Test(timeout = 10000)
+    public void aSecondaryRateLimitNamedInTheBodyIsReportedByTheHandler() throws Exception {
+        respond(403, "{\"message\":\"You have triggered an abuse detection mechanism.\"}");
+        HttpURLConnection uc = send("/repos/o/r/contributors");
+        assertEquals(403, uc.getResponseCode());
+        assertEquals(LIMIT, limiter.getLimit());     // the observer doesn't read the body
+        String message = error(uc);
+        assertTrue(ObservedHttpURLConnection.isSecondaryRateLimit(uc, 403, message));
+
+        // Without a Retry-After the handler waits a minute; the test only needs it to get that far.
+        AtomicReference<IOException> thrown = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                new CustomAbuseLimitHandler(limiter).onError(new HttpException(message, 403, "Forbidden", uc.getURL().toString()), uc);
+            } catch (IOException e) {
+                thrown.set(e);
+            }
+        });
+        waiting.start();
+        while (limiter.getLimit() == LIMIT)
+            Thread.sleep(10);
+        waiting.interrupt();
+        waiting.join();
+
+        assertTrue(thrown.get() instanceof InterruptedIOException);
+        assertEquals(LIMIT / 2, limiter.getLimit());
+        assertEquals(ConcurrencyLimiter.NO_SLOT, limiter.tryAcquire());     // paused for the minute
+
+        limiter.overloaded(((ObservedHttpURLConnection) uc).getTicket());   // the same request again
+        assertEquals(LIMIT / 2, limiter.getLimit());
+    }
+
+    /*
+        Helpers
+     */
+
+    private void respond(int code, String body) {
+        this.code = code;
+        this.body = body;
+        headers.clear();
+    }
+
+    private HttpURLConnection send(String path) throws IOException {
+        HttpURLConnection uc = connector.connect(new URL(baseUrl + path));
+        uc.getResponseCode();
+        return uc;
+    }
+
+    private static String error(HttpURLConnection uc) throws IOException {
+        byte[] bytes = new byte[4096];
+        int length = uc.getErrorStream().read(bytes);
+        return new String(bytes, 0, Math.max(0, length), StandardCharsets.UTF_8);
+    }
+}
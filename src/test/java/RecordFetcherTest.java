@@ -0,0 +1,267 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.AbuseLimitHandler;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.RateLimitHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs RecordFetcher against a local stand-in for the API, with handlers that count instead of waiting.
+ */
+public class RecordFetcherTest {
+
+    /*
+        A canned response of the stand-in server.
+     */
+    private static final class Response {
+        final int code;
+        final String body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private HttpServer server;
+    private String apiUrl;
+    private final Deque<Response> responses = new ArrayDeque<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<String> waits = new ArrayList<>();
+    private RecordFetcher fetcher;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestURI().toString());
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            Response r = responses.poll();
+
+            for (Map.Entry<String, String> h : r.headers.entrySet())
+                exchange.getResponseHeaders().set(h.getKey(), h.getValue());
+
+            if (r.body == null) {
+                exchange.sendResponseHeaders(r.code, -1);
+            } else {
+                byte[] body = r.body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(r.code, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        fetcher = new RecordFetcher(apiUrl, "secret", HttpConnector.DEFAULT,
+                new RateLimitHandler() {
+                    @Override
+                    public void onError(IOException e, HttpURLConnection uc) {
+                        waits.add("rate " + e.getMessage());
+                    }
+                },
+                new AbuseLimitHandler() {
+                    @Override
+                    public void onError(IOException e, HttpURLConnection uc) {
+                        waits.add("abuse " + e.getMessage());
+                    }
+                });
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void readsTheRepositoryFieldsAndSkipsTheRest() throws IOException {
+        responses.add(new Response(200, "{"
+                + "\"id\":1296269,\"node_id\":\"MDEwOlJlcG9zaXRvcnkxMjk2MjY5\",\"name\":\"Hello-World\","
+                + "\"full_name\":\"octocat/Hello-World\","
+                + "\"owner\":{\"login\":\"octocat\",\"id\":1,\"site_admin\":false,\"plan\":{\"name\":\"pro\",\"space\":976562499}},"
+                + "\"private\":false,\"description\":\"This your first repo!\",\"fork\":false,"
+                + "\"topics\":[\"octocat\",\"api\"],\"permissions\":{\"admin\":false,\"push\":false,\"pull\":true},"
+                + "\"parent\":null,\"homepage\":null,\"language\":\"Java\","
+                + "\"forks_count\":9,\"stargazers_count\":80,\"watchers_count\":81,"
+                + "\"created_at\":\"2011-01-26T19:01:12Z\",\"license\":{\"key\":\"mit\",\"name\":\"MIT License\"}"
+                + "}"));
+
+        RecordFetcher.Repository repo = fetcher.fetchRepository("octocat/Hello-World");
+
+        assertEquals("/repos/octocat/Hello-World", requests.get(0));
+        assertEquals("token secret", authorizations.get(0));
+        assertEquals(1296269, repo.record.id);
+        assertEquals("octocat/Hello-World", repo.record.fullName);
+        assertEquals(new Date(1296068472000L), repo.record.createdAt);
+        assertEquals("This your first repo!", repo.record.description);
+        assertEquals("Java", repo.record.language);
+        assertEquals(80, repo.record.stargazers);
+        assertEquals(81, repo.record.watchers);
+        assertEquals(9, repo.record.forks);
+        assertFalse(repo.fork);
+        assertEquals(1, repo.owner.id);
+        assertEquals("octocat", repo.owner.login);
+    }
+
+    @Test
+    public void readsNullFieldsAndTheForkFlag() throws IOException {
+        responses.add(new Response(200, "{\"id\":7,\"full_name\":\"someone/fork\",\"owner\":null,"
+                + "\"description\":null,\"language\":null,\"fork\":true,"
+                + "\"parent\":{\"id\":6,\"full_name\":\"octocat/original\",\"owner\":{\"login\":\"octocat\",\"id\":1}},"
+                + "\"forks_count\":0,\"stargazers_count\":0,\"watchers_count\":0,\"created_at\":null}"));
+
+        RecordFetcher.Repository repo = fetcher.fetchRepository("someone/fork");
+
+        assertEquals(7, repo.record.id);
+        assertEquals("someone/fork", repo.record.fullName);     // not the parent's
+        assertNull(repo.record.description);
+        assertNull(repo.record.language);
+        assertNull(repo.record.createdAt);
+        assertTrue(repo.fork);
+        assertNull(repo.owner);
+    }
+
+    @Test
+    public void readsAUser() throws IOException {
+        responses.add(new Response(200, "{\"login\":\"octocat\",\"id\":1,\"type\":\"User\",\"name\":\"The Octocat\","
+                + "\"company\":null,\"location\":\"San Francisco\",\"followers\":20,\"following\":3,"
+                + "\"plan\":{\"name\":\"pro\",\"collaborators\":0}}"));
+        responses.add(new Response(200, "{\"login\":\"nowhere\",\"id\":2,\"location\":null,\"followers\":0,\"following\":0}"));
+
+        UserRecord user = fetcher.fetchUser("octocat");
+        UserRecord unlocated = fetcher.fetchUser("nowhere");
+
+        assertEquals("/users/octocat", requests.get(0));
+        assertEquals(1, user.id);
+        assertEquals("octocat", user.login);
+        assertEquals("San Francisco", user.location);
+        assertEquals(20, user.followers);
+        assertEquals(3, user.following);
+        assertNull(unlocated.location);
+    }
+
+    @Test
+    public void followsTheNextPageOfContributors() throws IOException {
+        String page2 = apiUrl + "/repositories/7/contributors?per_page=100&page=2";
+        responses.add(new Response(200, "[" + contributor(10, "a") + "," + contributor(11, "b") + "]")
+                .header("Link", "<" + page2 + ">; rel=\"next\", <" + page2 + ">; rel=\"last\""));
+        responses.add(new Response(200, "[" + contributor(12, "c") + "]")
+                .header("Link", "<" + apiUrl + "/repositories/7/contributors?per_page=100&page=1>; rel=\"first\", "
+                        + "<" + apiUrl + "/repositories/7/contributors?per_page=100&page=1>; rel=\"prev\""));
+
+        List<String> logins = new ArrayList<>();
+        URL page = fetcher.contributorsUrl("o/r");
+        while (page != null) {
+            RecordFetcher.ContributorPage contributors = fetcher.fetchContributors(page);
+            for (RecordFetcher.UserRef user : contributors.contributors)
+                logins.add(user.id + " " + user.login);
+            page = contributors.next;
+        }
+
+        assertEquals(Arrays.asList("/repos/o/r/contributors?per_page=100", "/repositories/7/contributors?per_page=100&page=2"), requests);
+        assertEquals(Arrays.asList("10 a", "11 b", "12 c"), logins);
+    }
+
+    @Test
+    public void anEmptyRepositoryHasNoContributors() throws IOException {
+        responses.add(new Response(204, null));
+
+        RecordFetcher.ContributorPage page = fetcher.fetchContributors(fetcher.contributorsUrl("o/empty"));
+
+        assertTrue(page.contributors.isEmpty());
+        assertNull(page.next);
+    }
+
+    @Test
+    public void keepsTheErrorBodyAsTheMessage() throws IOException {
+        responses.add(new Response(404, "{\"message\":\"Not Found\",\"documentation_url\":\"https://developer.github.com/v3\"}"));
+        responses.add(new Response(403, "{\"message\":\"Repository access blocked\",\"block\":{\"reason\":\"tos\"}}")
+                .header("X-RateLimit-Remaining", "4000"));
+        responses.add(new Response(500, null));
+
+        HttpException notFound = fetchFailing("o/gone");
+        assertEquals(404, notFound.getResponseCode());
+        assertTrue(notFound.getMessage().contains("Not Found"));
+
+        HttpException blocked = fetchFailing("o/blocked");
+        assertEquals(403, blocked.getResponseCode());
+        assertTrue(blocked.getMessage().contains("Repository access blocked"));
+
+        HttpException serverError = fetchFailing("o/broken");
+        assertEquals(500, serverError.getResponseCode());
+        assertTrue(serverError.getMessage(), serverError.getMessage().contains("Server Error"));
+
+        assertEquals(Collections.emptyList(), waits);   // none of them is waited out
+    }
+
+    @Test
+    public void sendsTheRequestAgainAfterARateLimitWait() throws IOException {
+        responses.add(new Response(403, "{\"message\":\"API rate limit exceeded for user ID 1.\"}")
+                .header("X-RateLimit-Remaining", "0"));
+        responses.add(new Response(403, "{\"message\":\"You have exceeded a secondary rate limit.\"}")
+                .header("X-RateLimit-Remaining", "4000"));
+        responses.add(new Response(429, "{\"message\":\"Too many requests\"}").header("Retry-After", "1"));
+        responses.add(new Response(200, "{\"login\":\"octocat\",\"id\":1,\"location\":null,\"followers\":0,\"following\":0}"));
+
+        UserRecord user = fetcher.fetchUser("octocat");
+
+        assertEquals("octocat", user.login);
+        assertEquals(4, requests.size());
+        assertEquals(3, waits.size());
+        assertTrue(waits.get(0), waits.get(0).startsWith("rate ") && waits.get(0).contains("API rate limit exceeded"));
+        assertTrue(waits.get(1), waits.get(1).startsWith("abuse ") && waits.get(1).contains("secondary rate limit"));
+        assertTrue(waits.get(2), waits.get(2).startsWith("abuse "));
+    }
+
+    /*
+        Helpers
+     */
+
+    private HttpException fetchFailing(String fullName) throws IOException {
+        try {
+            fetcher.fetchRepository(fullName);
+        } catch (HttpException e) {
+            return e;
+        }
+        fail(fullName + " should have failed");
+        return null;
+    }
+
+    private static String contributor(int id, String login) {
+        return "{\"login\":\"" + login + "\",\"id\":" + id + ",\"type\":\"User\",\"site_admin\":false,\"contributions\":" + id + "}";
+    }
+}
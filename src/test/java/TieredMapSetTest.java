@@ -0,0 +1,167 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs TieredMapSet with a small hot tier, so a few thousand puts already freeze the hot map, write runs
+ * and merge them in the background.
+ */
+public class TieredMapSetTest {
+
+    private static final int HOT_ENTRIES = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private TieredMapSet set;
+
+    @Before
+    public void createSet() throws IOException {
+        dir = new File(folder.getRoot(), "store");
+        set = new TieredMapSet(dir, 100000, HOT_ENTRIES);
+    }
+
+    @After
+    public void clearSet() {
+        set.clear();
+    }
+
+    @Test
+    public void keepsEveryKeyOnceAcrossTheTiers() {
+        for (int id = 0; id < 20 * HOT_ENTRIES; id++)
+            assertTrue(set.put(id * 3, "user" + id));
+
+        for (int id = 0; id < 20 * HOT_ENTRIES; id++) {
+            assertFalse(set.put(id * 3, "again"));
+            assertEquals("user" + id, set.get(id * 3));
+            assertNull(set.get(id * 3 + 1));
+        }
+        assertEquals(20 * HOT_ENTRIES, set.size());
+        assertTrue(set.runCount() > 0);
+    }
+
+    @Test
+    public void removedKeysCanBePutAgain() {
+        for (int id = 0; id < 5 * HOT_ENTRIES; id++)
+            set.put(id, "user" + id);
+
+        // the oldest ids are on disk by now, the newest still in the hot map
+        for (int id : new int[] {0, 1, 5 * HOT_ENTRIES - 1}) {
+            assertEquals("user" + id, set.remove(id));
+            assertNull(set.get(id));
+            assertNull(set.remove(id));
+        }
+        assertEquals(5 * HOT_ENTRIES - 3, set.size());
+
+        assertTrue(set.put(0, "renamed"));
+        assertFalse(set.put(0, "user0"));
+        assertEquals("renamed", set.get(0));
+
+        // more puts, so the runs holding the removed ids are merged
+        for (int id = 5 * HOT_ENTRIES; id < 20 * HOT_ENTRIES; id++)
+            set.put(id, "user" + id);
+        assertEquals("renamed", set.get(0));
+        assertNull(set.get(1));
+        assertTrue(set.put(1, "back"));
+        assertEquals("back", set.get(1));
+    }
+
+    /**
+     * Several threads put random ids, and roll back about 1% of their wins right away, the way the UserResolver
+     * does after a failed fetch. Exactly one thread may win each put, and every lookup must agree afterwards.
+     */
+    @Test(timeout = 120000)
+    public void concurrentPutsAndRollbacksHaveOneWinnerPerKey() throws Exception {
+        int keys = 100 * HOT_ENTRIES;
+        int threads = 8;
+        AtomicIntegerArray live = new AtomicIntegerArray(keys);
+        AtomicLong doubleWins = new AtomicLong(), badRemoves = new AtomicLong(), wins = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Future<?>[] done = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            done[t] = pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 50000; i++) {
+                    int id = random.nextInt(keys);
+                    if (!set.put(id, "user" + id))
+                        continue;
+
+                    wins.incrementAndGet();
+                    if (live.incrementAndGet(id) != 1)
+                        doubleWins.incrementAndGet();
+
+                    if (random.nextInt(100) == 0) {
+                        live.decrementAndGet(id);
+                        if (!("user" + id).equals(set.remove(id)))
+                            badRemoves.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Future<?> f : done)
+            f.get();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, doubleWins.get());
+        assertEquals(0, badRemoves.get());
+        assertTrue("the hot map was never written out", wins.get() > 2 * HOT_ENTRIES && set.runCount() > 0);
+
+        int present = 0;
+        for (int id = 0; id < keys; id++) {
+            String value = set.get(id);
+            if (live.get(id) == 1) {
+                present++;
+                assertEquals("user" + id, value);
+            } else {
+                assertNull("id " + id, value);
+            }
+        }
+        assertEquals(present, set.size());
+    }
+
+    @Test(timeout = 30000)
+    public void putThrowsOnceTheStoreCanNotBeWritten() throws InterruptedException {
+        // the next run has nowhere to go
+        assertTrue(dir.delete());
+
+        int id = 0;
+        try {
+            while (true) {
+                set.put(id++, "user");
+                if (id > HOT_ENTRIES)
+                    Thread.sleep(10);   // give the background flush time to fail
+            }
+        } catch (UncheckedIOException expected) {
+            assertTrue(id > HOT_ENTRIES);
+        }
+
+        try {
+            set.put(id, "user");
+            fail("put() should keep failing");
+        } catch (UncheckedIOException expected) {
+            // every put after the failure throws
+        }
+    }
+}
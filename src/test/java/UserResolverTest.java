@@ -0,0 +1,212 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that callers waiting on the same user share the result of the one fetch, failures included.
+ */
+public class UserResolverTest {
+
+    /*
+        A Sink that only counts the users written to it.
+     */
+    private static final class CountingSink implements Sink {
+        final AtomicInteger users = new AtomicInteger();
+
+        @Override
+        public int loadDiscoveredUsers(MapSet<Integer, String> discovered) { return 0; }
+        @Override
+        public void writeUser(UserRecord user) { users.incrementAndGet(); }
+        @Override
+        public void writeRepository(RepositoryRecord repo, List<ContributorEdge> contributors) {}
+        @Override
+        public void writeEventRepository(RepositoryRecord repo, List<ContributorEdge> contributors) {}
+        @Override
+        public void flush() {}
+        @Override
+        public void close() {}
+    }
+
+    /*
+        An Operation that returns the user, or fails with the given exception.
+     */
+    private static Operation<UserRecord> fetch(int id, IOException failure) {
+        return new Operation<UserRecord>() {
+            @Override
+            public UserRecord executeWithResult() throws IOException {
+                if (failure != null)
+                    throw failure;
+                return new UserRecord(id, "user" + id, null, 0, 0);
+            }
+            @Override
+            public Status handleIOException(IOException e) { return Status.RETHROW; }
+            @Override
+            public Status handleIteratorError(Error err) { return Status.RETHROW; }
+        };
+    }
+
+    @Test
+    public void recordsANewUserOnce() throws Throwable {
+        CountingSink sink = new CountingSink();
+        UserResolver resolver = new UserResolver(new MapSet<>(), 0, sink);
+
+        assertTrue(resolver.resolve(1, "user1", fetch(1, null)));
+        assertFalse(resolver.resolve(1, "user1", fetch(1, null)));
+        assertEquals(1, sink.users.get());
+    }
+
+    /**
+     * Many threads ask for the same new user at once; the user is fetched and written exactly once.
+     */
+    @Test(timeout = 10000)
+    public void concurrentCallersShareOneFetch() throws Exception {
+        int threads = 16;
+        CountingSink sink = new CountingSink();
+        UserResolver resolver = new UserResolver(new MapSet<>(), 0, sink);
+
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch finishFetch = new CountDownLatch(1);
+        Operation<UserRecord> slowFetch = new Operation<UserRecord>() {
+            @Override
+            public UserRecord executeWithResult() throws IOException {
+                fetches.incrementAndGet();
+                fetchStarted.countDown();
+                try {
+                    finishFetch.await();    // held until every other caller is waiting on this fetch
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new UserRecord(1, "user1", null, 0, 0);
+            }
+            @Override
+            public Status handleIOException(IOException e) { return Status.RETHROW; }
+            @Override
+            public Status handleIteratorError(Error err) { return Status.RETHROW; }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> callers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                callers.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        return resolver.resolve(1, "user1", slowFetch);
+                    } catch (Throwable e) {
+                        throw new Exception(e);
+                    }
+                }));
+            }
+            start.countDown();
+            fetchStarted.await();
+            Thread.sleep(200);      // let the other callers reach the shared future
+            finishFetch.countDown();
+
+            int discovered = 0;
+            for (Future<Boolean> caller : callers)
+                if (caller.get())
+                    discovered++;
+
+            assertEquals(1, fetches.get());
+            assertEquals(1, sink.users.get());
+            assertEquals(1, discovered);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rollsBackAFailedFetch() throws Throwable {
+        MapSet<Integer, String> discovered = new MapSet<>();
+        UserResolver resolver = new UserResolver(discovered, 0, new CountingSink());
+
+        try {
+            resolver.resolve(1, "user1", fetch(1, new IOException("Server Error")));
+            fail("the fetch failure should be passed on");
+        } catch (RetriesExceededException expected) {
+            // no retries allowed
+        }
+        assertEquals(null, discovered.get(1));
+        assertTrue(resolver.resolve(1, "user1", fetch(1, null)));
+    }
+
+    /**
+     * The set of discovered users fails while another caller waits on the same user. The waiting caller
+     * must get the failure rather than take the user as discovered.
+     */
+    @Test(timeout = 10000)
+    public void waitingCallersGetAFailureOfTheDiscoveredSet() throws Exception {
+        CountDownLatch putStarted = new CountDownLatch(1);
+        CountDownLatch failPut = new CountDownLatch(1);
+        MapSet<Integer, String> failing = new MapSet<Integer, String>() {
+            @Override
+            public boolean put(Integer key, String value) {
+                putStarted.countDown();
+                try {
+                    failPut.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new UncheckedIOException(new IOException("Writing the user store failed"));
+            }
+        };
+        CountingSink sink = new CountingSink();
+        UserResolver resolver = new UserResolver(failing, 0, sink);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> first = pool.submit(() -> {
+                try {
+                    return resolver.resolve(1, "user1", fetch(1, null));
+                } catch (Throwable t) {
+                    throw new Exception(t);
+                }
+            });
+            putStarted.await();
+
+            AtomicReference<Thread> waiter = new AtomicReference<>();
+            Future<Boolean> second = pool.submit(() -> {
+                waiter.set(Thread.currentThread());
+                try {
+                    return resolver.resolve(1, "user1", fetch(1, null));
+                } catch (Throwable t) {
+                    throw new Exception(t);
+                }
+            });
+            while (waiter.get() == null || waiter.get().getState() != Thread.State.WAITING)
+                Thread.sleep(10);
+            failPut.countDown();
+
+            for (Future<Boolean> caller : Arrays.asList(first, second)) {
+                try {
+                    caller.get();
+                    fail("both callers should get the failure");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause().getCause() instanceof UncheckedIOException);
+                }
+            }
+            assertEquals(0, sink.users.get());
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}